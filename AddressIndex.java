@@ -0,0 +1,175 @@
+/**
+ * Represents a hash map from memory addresses to list nodes.
+ * The map uses open addressing with linear probing over primitive arrays,
+ * so addresses are never boxed, and get, put and remove take O(1) expected time.
+ * Addresses are never negative, which lets -1 mark an empty slot.
+ */
+public class AddressIndex {
+
+	private static final int EMPTY = -1;  // marks a slot that holds no key
+
+	private int[] keys;     // the addresses, or EMPTY
+	private Node[] values;  // values[i] is the node mapped to keys[i]
+	private int size;       // number of addresses in this map
+	private int mask;       // capacity - 1, the capacity being a power of two
+	private int shift;      // 32 - log2(capacity)
+
+	/**
+	 * Constructs a new, empty map.
+	 */
+	public AddressIndex() {
+		this(16);
+	}
+
+	/**
+	 * Constructs a new, empty map that can hold the given number of addresses
+	 * before it has to grow.
+	 *
+	 * @param expectedSize
+	 *        the expected number of addresses
+	 */
+	public AddressIndex(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Checks if the given address is mapped.
+	 *
+	 * @param address
+	 *        the given address
+	 * @return true if the address is in this map, false otherwise
+	 */
+	public boolean containsKey(int address) {
+		return keys[find(address)] != EMPTY;
+	}
+
+	/**
+	 * Gets the node mapped to the given address.
+	 *
+	 * @param address
+	 *        the given address
+	 * @return the node mapped to the address, or null if the address is not in this map
+	 */
+	public Node get(int address) {
+		return values[find(address)];
+	}
+
+	/**
+	 * Maps the given address to the given node, replacing any previous mapping.
+	 *
+	 * @param address
+	 *        the given address, which must not be negative
+	 * @param node
+	 *        the node to associate with the address (may be null)
+	 * @throws IllegalArgumentException
+	 *         if the address is negative
+	 */
+	public void put(int address, Node node) {
+		if (address < 0) {
+			throw new IllegalArgumentException("address must be non-negative");
+		}
+		int i = find(address);
+		if (keys[i] == EMPTY) {
+			keys[i] = address;
+			size++;
+		}
+		values[i] = node;
+		// Keeps the load factor at most 1/2, so probe sequences stay short
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the given address from this map, if it is there.
+	 *
+	 * @param address
+	 *        the address to remove
+	 * @return the node that was mapped to the address, or null if the address was not in this map
+	 */
+	public Node remove(int address) {
+		int i = find(address);
+		if (keys[i] == EMPTY) {
+			return null;
+		}
+		Node removed = values[i];
+		// Backward-shift deletion: moves later entries of the probe sequence into
+		// the hole, so no tombstones are needed and lookups stay fast
+		int hole = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == EMPTY) {
+				break;
+			}
+			int home = slot(keys[j]);
+			// The entry at j may move to the hole only if its home slot is not
+			// located (cyclically) between the hole and j
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = EMPTY;
+		values[hole] = null;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Removes all the addresses from this map.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, EMPTY);
+		java.util.Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/** Returns the slot that holds the given address, or the empty slot where it would go. */
+	private int find(int address) {
+		int i = slot(address);
+		while (keys[i] != EMPTY && keys[i] != address) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the home slot of the given address. Uses Fibonacci hashing: the slot is taken
+	 * from the high bits of the product, which depend on all the bits of the address, so
+	 * addresses that share their low bits (such as multiples of a block size) do not collide.
+	 */
+	private int slot(int address) {
+		return (address * 0x9E3779B9) >>> shift;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Node[capacity];
+		mask = capacity - 1;
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+		java.util.Arrays.fill(keys, EMPTY);
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Node[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int j = find(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+/**
+ * The placement policies that MemorySpace.malloc can use to choose a free block
+ * for a requested length. Each policy makes at most one pass over the free list.
+ */
+public enum AllocationPolicy {
+    /** Takes the first free block that is large enough. */
+    FIRST_FIT,
+    /** Like first-fit, but resumes the scan where the previous allocation left off. */
+    NEXT_FIT,
+    /** Takes the smallest free block that is large enough (the first one, on ties). */
+    BEST_FIT,
+    /** Takes the largest free block (the first one, on ties), if it is large enough. */
+    WORST_FIT
+}
@@ -0,0 +1,41 @@
+/* This program compares the placement policies of MemorySpace, for speed and for
+ * fragmentation, by replaying the same random trace of malloc and free calls with each policy.
+ *
+ * The trace is described in AllocationTrace. Each policy is measured in the
+ * default mode (freed blocks are appended to the free list and never coalesced) and in
+ * address-ordered mode (freed blocks are coalesced on free).
+ *
+ * For each run, the program prints the throughput, the number of failed mallocs, and the
+ * final length and fragmentation (1 - largest free block / total free size) of the free list.
+ *
+ * Usage: java AllocationPolicyBenchmark [operations] [memory size]
+ *        (defaults: 100000 operations, 262144 words)
+ */
+public class AllocationPolicyBenchmark {
+
+    public static void main(String[] args) {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 1 << 18;
+        // Warms up the JIT on a short trace
+        for (AllocationPolicy policy : AllocationPolicy.values()) {
+            run(policy, true, 20000, size, false);
+        }
+        System.out.println("policy      mode       ops/sec      failed   free blocks  fragmentation");
+        for (boolean addressOrdered : new boolean[] { false, true }) {
+            for (AllocationPolicy policy : AllocationPolicy.values()) {
+                run(policy, addressOrdered, ops, size, true);
+            }
+        }
+    }
+
+    private static void run(AllocationPolicy policy, boolean addressOrdered, int ops, int size,
+            boolean print) {
+        MemorySpace memory = new MemorySpace(size, policy, addressOrdered);
+        long[] result = AllocatorBenchmark.replay(memory, ops, size);
+        if (print) {
+            System.out.printf("%-11s %-10s %-12.0f %-8d %-12d %.3f%n", policy,
+                    addressOrdered ? "ordered" : "default", ops / (result[0] / 1e9), result[1],
+                    memory.getFreeBlockCount(), memory.getFragmentation());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Represents a random trace of malloc and free calls, which the benchmarks replay.
+ * <p>
+ * The trace keeps the memory space about 70% full: it allocates while the allocated size
+ * is below the target, and otherwise frees a random live block or allocates with equal
+ * probability. Most requests are small (1-16 words), and some are large (up to 256 words).
+ * The trace depends only on the seed, the size, and the results of malloc.
+ */
+public class AllocationTrace {
+
+    private java.util.Random random;
+    private int[] live;      // the base addresses of the live blocks
+    private int[] lengths;   // lengths[i] is the requested length of block live[i]
+    private int liveCount;
+    private long used;       // the sum of the requested lengths of the live blocks
+    private long target;     // the allocated size above which the trace also frees
+    private int failed;      // the number of failed mallocs
+
+    /**
+     * Constructs a new trace for a memory space of the given size.
+     *
+     * @param size
+     *        the size of the memory space
+     * @param seed
+     *        the seed of the random sequence
+     */
+    public AllocationTrace(int size, long seed) {
+        random = new java.util.Random(seed);
+        live = new int[16];
+        lengths = new int[16];
+        target = size * 7L / 10;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Performs the next operation of the trace on the given memory space.
+     *
+     * @param memory
+     *        the memory space
+     */
+    public void step(Allocator memory) {
+        if (liveCount > 0 && used >= target && random.nextBoolean()) {
+            int i = random.nextInt(liveCount);
+            memory.free(live[i]);
+            used -= lengths[i];
+            liveCount--;
+            live[i] = live[liveCount];
+            lengths[i] = lengths[liveCount];
+        } else {
+            int length = (random.nextInt(8) == 0) ? 1 + random.nextInt(256) : 1 + random.nextInt(16);
+            int address = memory.malloc(length);
+            if (address < 0) {
+                failed++;
+            } else {
+                if (liveCount == live.length) {
+                    live = java.util.Arrays.copyOf(live, liveCount * 2);
+                    lengths = java.util.Arrays.copyOf(lengths, liveCount * 2);
+                }
+                live[liveCount] = address;
+                lengths[liveCount] = length;
+                liveCount++;
+                used += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * The operations of a managed memory space. MemorySpace is the reference implementation;
+ * the other implementations organize their free blocks differently, but follow the same contract:
+ * <p>
+ * malloc returns the base address of a newly allocated block, or -1 if unable to allocate
+ * (or if the requested length is not positive).
+ * <p>
+ * free releases the allocated block whose base address equals the given address. It throws
+ * an IllegalArgumentException if no block is allocated, and ignores addresses that are not
+ * the base address of an allocated block.
+ * <p>
+ * defrag merges adjacent free blocks, and returns true.
+ * <p>
+ * toString returns the free blocks on one line, followed by the allocated blocks (in allocation
+ * order) on a second line, each formatted as "(baseAddress , length) ".
+ */
+public interface Allocator {
+
+    /**
+     * Allocates a memory block of the given length (in words).
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    int malloc(int length);
+
+    /**
+     * Frees the allocated memory block whose base address equals the given address.
+     *
+     * @param address
+     *        the base address of the block to free
+     */
+    void free(int address);
+
+    /**
+     * Merges adjacent free blocks.
+     */
+    boolean defrag();
+}
@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Represents the storage behind a memory space: a direct ByteBuffer, outside the Java heap,
+ * that holds one 8-byte word for every address of the memory space. Word a occupies the bytes
+ * 8a to 8a + 7 of the buffer. The garbage collector never scans or copies the contents, so an
+ * arena of any size adds a single object to the heap.
+ * <p>
+ * Every word can be read and written as a long, a double or an int (the int occupies the low
+ * half of the word). The accessors take absolute word addresses, and check only that the
+ * address is within the arena: they throw an IndexOutOfBoundsException otherwise (the address
+ * is checked before it is turned into a byte offset, which could wrap around); see
+ * ArenaMemorySpace for accessors that are relative to an allocated block.
+ * <p>
+ * A direct ByteBuffer holds at most Integer.MAX_VALUE bytes, so an arena has at most
+ * MAX_WORDS words.
+ */
+public class Arena {
+
+    /** The size of a word, in bytes. */
+    public static final int WORD_BYTES = 8;
+
+    /** The largest number of words in an arena. */
+    public static final int MAX_WORDS = Integer.MAX_VALUE / WORD_BYTES;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new arena of the given number of words, all 0.
+     *
+     * @param words
+     *            the number of words, between 0 and MAX_WORDS
+     * @throws IllegalArgumentException
+     *         if words is negative or greater than MAX_WORDS
+     */
+    public Arena(int words) {
+        if (words < 0 || words > MAX_WORDS) {
+            throw new IllegalArgumentException("words must be between 0 and " + MAX_WORDS);
+        }
+        buffer = ByteBuffer.allocateDirect(words * WORD_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Constructs an arena whose words are held by the given buffer (such as a mapped file),
+     * from its position to its limit.
+     */
+    Arena(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /** Returns the number of words in this arena. */
+    public int getSize() {
+        return buffer.capacity() / WORD_BYTES;
+    }
+
+    public long getLong(int address) {
+        return buffer.getLong(offset(address));
+    }
+
+    public void putLong(int address, long value) {
+        buffer.putLong(offset(address), value);
+    }
+
+    public double getDouble(int address) {
+        return buffer.getDouble(offset(address));
+    }
+
+    public void putDouble(int address, double value) {
+        buffer.putDouble(offset(address), value);
+    }
+
+    public int getInt(int address) {
+        return (int) buffer.getLong(offset(address));
+    }
+
+    /** Writes the given int into the word at the given address, sign-extended to the whole word. */
+    public void putInt(int address, int value) {
+        buffer.putLong(offset(address), value);
+    }
+
+    /**
+     * Copies the given number of words from the source address to the target address, as
+     * a single bulk copy. The two ranges may overlap.
+     *
+     * @throws IndexOutOfBoundsException
+     *         if either range is not within the arena
+     */
+    public void copy(int source, int target, int words) {
+        checkRange(source, words);
+        checkRange(target, words);
+        buffer.put(target * WORD_BYTES, buffer, source * WORD_BYTES, words * WORD_BYTES);
+    }
+
+    /**
+     * Sets the given number of words, from the given address on, to the given value.
+     *
+     * @throws IndexOutOfBoundsException
+     *         if the range is not within the arena
+     */
+    public void fill(int address, int words, long value) {
+        checkRange(address, words);
+        for (int i = 0; i < words; i++) {
+            buffer.putLong((address + i) * WORD_BYTES, value);
+        }
+    }
+
+    /** Returns the byte offset of the word at the given address, which must be within the arena. */
+    private int offset(int address) {
+        if (address < 0 || address >= getSize()) {
+            throw new IndexOutOfBoundsException("address " + address + " is not within the arena");
+        }
+        return address * WORD_BYTES;
+    }
+
+    /** Checks that the given number of words, from the given address on, are within the arena. */
+    private void checkRange(int address, int words) {
+        if (address < 0 || words < 0 || words > getSize() - address) {
+            throw new IndexOutOfBoundsException("words " + address + " to " + ((long) address + words - 1)
+                    + " are not within the arena");
+        }
+    }
+}
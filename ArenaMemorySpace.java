@@ -0,0 +1,172 @@
+/**
+ * Represents a managed memory space whose addresses point at real storage: a MemorySpace does
+ * the bookkeeping, and an Arena of the same size, outside the Java heap, holds the words. The
+ * blocks that malloc returns can thus host data, which the garbage collector never traces.
+ * <p>
+ * The accessors take the base address of an allocated block, as returned by malloc, and an
+ * offset (in words) within the block. In debug mode, every access checks that a block is
+ * allocated at the given base address (which catches uses after free), and that the offset is
+ * within the block's length; the check finds the block through the allocated list's address
+ * index, in O(1) time. Otherwise, accesses are only checked against the bounds of the arena,
+ * as in C, where writing past the end of a block overwrites its neighbour.
+ * <p>
+ * The methods malloc, free, defrag and toString are those of MemorySpace. Freed words keep
+ * their contents, and malloc does not clear them.
+ */
+public class ArenaMemorySpace implements Allocator {
+
+    // The bookkeeping: which blocks are free and which are allocated
+    private MemorySpace memory;
+
+    // The words
+    private Arena arena;
+
+    // If true, every access is checked against the block it names
+    private boolean debug;
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, backed by an arena,
+     * without debug checks.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed, at most Arena.MAX_WORDS
+     */
+    public ArenaMemorySpace(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, backed by an arena.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed, at most Arena.MAX_WORDS
+     * @param debug
+     *            true to check every access against the block it names
+     * @throws IllegalArgumentException
+     *         if maxSize is negative or greater than Arena.MAX_WORDS
+     */
+    public ArenaMemorySpace(int maxSize, boolean debug) {
+        this.arena = new Arena(maxSize);
+        this.memory = new MemorySpace(maxSize);
+        this.debug = debug;
+    }
+
+    public int malloc(int length) {
+        return memory.malloc(length);
+    }
+
+    public void free(int address) {
+        memory.free(address);
+    }
+
+    public boolean defrag() {
+        return memory.defrag();
+    }
+
+    /** Returns the arena that holds the words of this memory space. */
+    public Arena getArena() {
+        return arena;
+    }
+
+    /** Returns true if every access is checked against the block it names. */
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Reads a word of an allocated block, as a long.
+     *
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset of the word within the block
+     * @throws IllegalArgumentException
+     *         in debug mode, if no block is allocated at the given address, or if the offset
+     *         is negative or not smaller than the block's length
+     * @throws IndexOutOfBoundsException
+     *         if the word is not within the arena
+     */
+    public long getLong(int address, int offset) {
+        return arena.getLong(word(address, offset));
+    }
+
+    /**
+     * Writes a word of an allocated block, as a long.
+     *
+     * @throws IllegalArgumentException
+     *         in debug mode, if the access is not within an allocated block (see getLong)
+     */
+    public void putLong(int address, int offset, long value) {
+        arena.putLong(word(address, offset), value);
+    }
+
+    /**
+     * Reads a word of an allocated block, as a double.
+     *
+     * @throws IllegalArgumentException
+     *         in debug mode, if the access is not within an allocated block (see getLong)
+     */
+    public double getDouble(int address, int offset) {
+        return arena.getDouble(word(address, offset));
+    }
+
+    /**
+     * Writes a word of an allocated block, as a double.
+     *
+     * @throws IllegalArgumentException
+     *         in debug mode, if the access is not within an allocated block (see getLong)
+     */
+    public void putDouble(int address, int offset, double value) {
+        arena.putDouble(word(address, offset), value);
+    }
+
+    /**
+     * Reads a word of an allocated block, as an int.
+     *
+     * @throws IllegalArgumentException
+     *         in debug mode, if the access is not within an allocated block (see getLong)
+     */
+    public int getInt(int address, int offset) {
+        return arena.getInt(word(address, offset));
+    }
+
+    /**
+     * Writes a word of an allocated block, as an int.
+     *
+     * @throws IllegalArgumentException
+     *         in debug mode, if the access is not within an allocated block (see getLong)
+     */
+    public void putInt(int address, int offset, int value) {
+        arena.putInt(word(address, offset), value);
+    }
+
+    /**
+     * Returns the address of the word at the given offset of the given block, checking it against
+     * the block in debug mode, and against the bounds of the arena (without wrapping around) always.
+     */
+    private int word(int address, int offset) {
+        if (debug) {
+            int length = memory.getAllocatedLength(address);
+            if (length < 0) {
+                throw new IllegalArgumentException("no block is allocated at address " + address);
+            }
+            if (offset < 0 || offset >= length) {
+                throw new IllegalArgumentException("offset must be between 0 and the block's length");
+            }
+        }
+        long word = (long) address + offset;
+        if (word < 0 || word >= arena.getSize()) {
+            throw new IndexOutOfBoundsException("word " + word + " is not within the arena");
+        }
+        return (int) word;
+    }
+
+    /**
+     * A textual representation of the free list and the allocated list of this memory space,
+     * for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        return memory.toString();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Represents a managed memory space that records which memory is in use in a bitmap.
+ * <p>
+ * The memory space is divided into chunks of a fixed number of words (one word, by default),
+ * and every chunk has one bit in the "used" bitmap. A second bitmap marks the last chunk of
+ * every allocated block, which is all that free needs in order to know where a block ends:
+ * a chunk begins a block if it is used, and the chunk before it is either free or the last
+ * chunk of another block. So the whole state costs two bits per chunk, instead of a
+ * MemoryBlock and a Node per block.
+ * <p>
+ * malloc rounds the requested length up to whole chunks, and takes the first run of free
+ * chunks that is long enough (first-fit by address). Runs are found 64 chunks at a time, by
+ * scanning whole words of the bitmap with Long.numberOfTrailingZeros.
+ * Free chunks are never split into blocks, so defrag has nothing to do.
+ * <p>
+ * The methods malloc, free and defrag follow the same contract as in MemorySpace. Since the
+ * allocation order is not recorded, toString lists the allocated blocks (with their lengths
+ * rounded up to whole chunks) by ascending base address. If the size of the memory space is
+ * not a multiple of the chunk size, the words of the last, partial chunk are never allocated.
+ */
+public class BitmapMemorySpace implements Allocator {
+
+    // Bit i is set if and only if chunk i is used. The bits that follow the
+    // last chunk, in the last word, are set too, so scans stop there.
+    private long[] used;
+
+    // Bit i is set if and only if chunk i is the last chunk of an allocated block
+    private long[] ends;
+
+    private int chunkSize;  // the number of words in a chunk
+    private int chunks;     // the number of chunks in this memory space
+    private int allocatedCount;  // the number of allocated blocks
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with one-word chunks.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public BitmapMemorySpace(int maxSize) {
+        this(maxSize, 1);
+    }
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with chunks of the given size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     * @param chunkSize
+     *            the number of words in a chunk (the allocation granularity)
+     * @throws IllegalArgumentException
+     *         if the chunk size is not positive
+     */
+    public BitmapMemorySpace(int maxSize, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        chunks = maxSize / chunkSize;
+        int words = (chunks >>> 6) + 1;
+        used = new long[words];
+        ends = new long[words];
+        // Marks the bits past the last chunk as used
+        used[words - 1] = -1L << (chunks & 63);
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), rounded up to whole chunks,
+     * from the first run of free chunks that is long enough. Returns the base address of the
+     * allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int n = (int) (((long) length + chunkSize - 1) / chunkSize);
+        int start = nextClear(used, 0);
+        while (start < chunks) {
+            int end = nextSet(used, start);
+            if (end - start >= n) {
+                setRange(used, start, start + n);
+                ends[(start + n - 1) >>> 6] |= 1L << (start + n - 1);
+                allocatedCount++;
+                return start * chunkSize;
+            }
+            start = nextClear(used, end);
+        }
+        return -1;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address.
+     * The block's chunks are marked as free, which also merges them with the free chunks around them.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocatedCount == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        if (address < 0 || address % chunkSize != 0 || address / chunkSize >= chunks) {
+            return;
+        }
+        int start = address / chunkSize;
+        if (!isBlockStart(start)) {
+            return;
+        }
+        int last = nextSet(ends, start);
+        clearRange(used, start, last + 1);
+        ends[last >>> 6] &= ~(1L << last);
+        allocatedCount--;
+    }
+
+    /**
+     * Does nothing, since free chunks are never split into blocks.
+     */
+    public boolean defrag() {
+        return true;
+    }
+
+    /** Checks if the given chunk is the first chunk of an allocated block. */
+    private boolean isBlockStart(int chunk) {
+        if (!get(used, chunk)) {
+            return false;
+        }
+        return chunk == 0 || !get(used, chunk - 1) || get(ends, chunk - 1);
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Returns the index of the first set bit at or after the given index (or the bitmap's size). */
+    private static int nextSet(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) {
+            return bits.length << 6;
+        }
+        long word = bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length) {
+                return bits.length << 6;
+            }
+            word = bits[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** Returns the index of the first clear bit at or after the given index (or the bitmap's size). */
+    private static int nextClear(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) {
+            return bits.length << 6;
+        }
+        long word = ~bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length) {
+                return bits.length << 6;
+            }
+            word = ~bits[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** Sets the bits from index from (inclusive) to index to (exclusive), a word at a time. */
+    private static void setRange(long[] bits, int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            bits[first] |= firstMask & lastMask;
+            return;
+        }
+        bits[first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            bits[w] = -1L;
+        }
+        bits[last] |= lastMask;
+    }
+
+    /** Clears the bits from index from (inclusive) to index to (exclusive), a word at a time. */
+    private static void clearRange(long[] bits, int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            bits[first] &= ~(firstMask & lastMask);
+            return;
+        }
+        bits[first] &= ~firstMask;
+        for (int w = first + 1; w < last; w++) {
+            bits[w] = 0;
+        }
+        bits[last] &= ~lastMask;
+    }
+
+    /**
+     * A textual representation of the free blocks (maximal runs of free chunks) and of the
+     * allocated blocks of this memory space, both by ascending base address, for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int start = nextClear(used, 0);
+        while (start < chunks) {
+            int end = nextSet(used, start);
+            sb.append("(").append(start * chunkSize).append(" , ").append((end - start) * chunkSize).append(") ");
+            start = nextClear(used, end);
+        }
+        sb.append("\n");
+        start = nextSet(used, 0);
+        while (start < chunks) {
+            int last = nextSet(ends, start);
+            sb.append("(").append(start * chunkSize).append(" , ").append((last + 1 - start) * chunkSize).append(") ");
+            start = nextSet(used, last + 1);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Represents a list of memory blocks, accessed by position or through its nodes.
+ * LinkedList is the plain implementation; other implementations trade memory or
+ * simplicity for faster positional access.
+ */
+public interface BlockList {
+
+	/** Returns the first node of this list, or null if this list is empty. */
+	Node getFirst();
+
+	/** Returns the last node of this list, or null if this list is empty. */
+	Node getLast();
+
+	/** Returns the number of blocks in this list. */
+	int getSize();
+
+	/**
+	 * Gets the node located at the given index in this list.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	Node getNode(int index);
+
+	/**
+	 * Creates a new node that points to the given memory block, and inserts it at the given index.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than size
+	 */
+	void add(int index, MemoryBlock block);
+
+	/** Creates a new node that points to the given memory block, and adds it to the end of this list. */
+	void addLast(MemoryBlock block);
+
+	/** Creates a new node that points to the given memory block, and adds it to the beginning of this list. */
+	void addFirst(MemoryBlock block);
+
+	/**
+	 * Gets the memory block located at the given index in this list.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	MemoryBlock getBlock(int index);
+
+	/** Gets the index of the node pointing to the given memory block, or -1 if there is none. */
+	int indexOf(MemoryBlock block);
+
+	/**
+	 * Removes the given node from this list. If the node is not linked to a list, nothing happens.
+	 *
+	 * @throws NullPointerException
+	 *         if the node is null
+	 */
+	void remove(Node node);
+
+	/**
+	 * Removes from this list the node which is located at the given index.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	void remove(int index);
+
+	/**
+	 * Removes from this list the node pointing to the given memory block.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if the given memory block is not in this list
+	 */
+	void remove(MemoryBlock block);
+
+	/** Sorts this list by the base addresses of its memory blocks, keeping the order of equal addresses. */
+	void sortByBaseAddress();
+
+	/** Merges every memory block with the blocks that directly follow it in memory. The list must be sorted. */
+	void coalesce();
+
+	/** Returns an iterator over this list, starting with the first element. */
+	ListIterator iterator();
+}
@@ -0,0 +1,218 @@
+/**
+ * Represents a managed memory space that uses the binary buddy system.
+ * <p>
+ * Every block has a power-of-two length 2^k (its order k), and a base address that is a
+ * multiple of its length. malloc rounds the requested length up to a power of two, takes a free
+ * block of the smallest sufficient order, and splits it in halves until it has the requested
+ * order; each split frees the upper half (the buddy of the lower half). free merges the block
+ * with its buddy, as long as the buddy is free, and so on up the orders. Both take O(log n) time.
+ * <p>
+ * The free blocks of each order are kept in an address-indexed list, so a buddy is removed in
+ * O(1) time, and a bitmap per order records which blocks are free, so the state of a buddy is
+ * checked without any scan. A memory space whose size is not a power of two starts with one free
+ * block for every 1 bit of its size (for example, 100 = 64 + 32 + 4).
+ * <p>
+ * Since free blocks are merged as soon as possible, defrag has nothing to do. Rounding lengths up
+ * wastes space inside the allocated blocks (internal fragmentation), which this class reports.
+ * The allocated blocks appear in toString with their full, rounded length.
+ */
+public class BuddyMemorySpace implements Allocator {
+
+    // The largest order: lengths up to 2^30 can be allocated
+    private static final int MAX_ORDER = 30;
+
+    // freeLists[k] is the list of the free blocks of order k
+    private IndexedList[] freeLists;
+
+    // Bit (address >> k) of freeBits[k] is set if and only if the block of order k
+    // at that address is free
+    private long[][] freeBits;
+
+    // Bit k is set if and only if freeLists[k] is not empty
+    private int nonEmpty;
+
+    // The allocated blocks, each with its requested length (from which its order is derived)
+    private IndexedList allocatedList;
+
+    // The sum of the requested lengths, and of the rounded lengths, of the allocated blocks
+    private long requestedWords;
+    private long allocatedWords;
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public BuddyMemorySpace(int maxSize) {
+        freeLists = new IndexedList[MAX_ORDER + 1];
+        freeBits = new long[MAX_ORDER + 1][];
+        for (int k = 0; k <= MAX_ORDER; k++) {
+            freeLists[k] = new IndexedList();
+            // Room for the bit of every block, and for the bit of the buddy of the last one
+            freeBits[k] = new long[(((maxSize >>> k) + 1) >>> 6) + 1];
+        }
+        allocatedList = new IndexedList();
+        // Splits the memory space into aligned power-of-two blocks, from the largest
+        int base = 0;
+        for (int k = MAX_ORDER; k >= 0; k--) {
+            if ((maxSize & (1 << k)) != 0) {
+                pushFree(new MemoryBlock(base, 1 << k), k);
+                base += 1 << k;
+            }
+        }
+    }
+
+    /** Returns the order of the given (positive) length: ceil(log2(length)). */
+    static int orderOf(int length) {
+        return (length == 1) ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words). Returns the
+     * base address of the allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0 || length > (1 << MAX_ORDER)) {
+            return -1;
+        }
+        int k = orderOf(length);
+        int candidates = nonEmpty & (-1 << k);
+        if (candidates == 0) {
+            return -1;
+        }
+        int j = Integer.numberOfTrailingZeros(candidates);
+        MemoryBlock blk = popFree(j);
+        // Splits the block down to order k, freeing the upper half at every step
+        while (j > k) {
+            j--;
+            pushFree(new MemoryBlock(blk.baseAddress + (1 << j), 1 << j), j);
+        }
+        blk.length = length;
+        allocatedList.add(blk);
+        requestedWords += length;
+        allocatedWords += 1 << k;
+        return blk.baseAddress;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, and merges it
+     * with its buddy, as long as the buddy is free.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocatedList.getSize() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        MemoryBlock blk = allocatedList.remove(address);
+        if (blk == null) {
+            return;
+        }
+        int k = orderOf(blk.length);
+        requestedWords -= blk.length;
+        allocatedWords -= 1 << k;
+        int base = blk.baseAddress;
+        while (k < MAX_ORDER) {
+            int buddy = base ^ (1 << k);
+            if (!isFree(buddy, k)) {
+                break;
+            }
+            freeLists[k].remove(buddy);
+            setFree(buddy, k, false);
+            if (freeLists[k].getSize() == 0) {
+                nonEmpty &= ~(1 << k);
+            }
+            base = Math.min(base, buddy);
+            k++;
+        }
+        blk.baseAddress = base;
+        blk.length = 1 << k;
+        pushFree(blk, k);
+    }
+
+    /**
+     * Does nothing, since free merges every block with its buddy as soon as possible.
+     * Free blocks that are adjacent but are not buddies are never merged.
+     */
+    public boolean defrag() {
+        return true;
+    }
+
+    /**
+     * Returns the internal fragmentation of this memory space: the fraction of the allocated
+     * words that were not requested, due to rounding lengths up to powers of two.
+     * Returns 0 if nothing is allocated.
+     */
+    public double getInternalFragmentation() {
+        return (allocatedWords == 0) ? 0 : 1 - (double) requestedWords / allocatedWords;
+    }
+
+    /** Returns the number of free blocks, in all orders. */
+    public int getFreeBlockCount() {
+        int count = 0;
+        for (int k = 0; k <= MAX_ORDER; k++) {
+            count += freeLists[k].getSize();
+        }
+        return count;
+    }
+
+    private void pushFree(MemoryBlock blk, int k) {
+        freeLists[k].add(blk);
+        setFree(blk.baseAddress, k, true);
+        nonEmpty |= 1 << k;
+    }
+
+    private MemoryBlock popFree(int k) {
+        MemoryBlock blk = freeLists[k].getFirst();
+        freeLists[k].remove(blk.baseAddress);
+        setFree(blk.baseAddress, k, false);
+        if (freeLists[k].getSize() == 0) {
+            nonEmpty &= ~(1 << k);
+        }
+        return blk;
+    }
+
+    private boolean isFree(int address, int k) {
+        int i = address >>> k;
+        long[] bits = freeBits[k];
+        return (i >>> 6) < bits.length && (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void setFree(int address, int k, boolean free) {
+        int i = address >>> k;
+        if (free) {
+            freeBits[k][i >>> 6] |= 1L << i;
+        } else {
+            freeBits[k][i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    /**
+     * A textual representation of the free blocks (order by order, from the smallest order)
+     * and of the allocated blocks of this memory space, for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k <= MAX_ORDER; k++) {
+            ListIterator itr = freeLists[k].iterator();
+            while (itr.hasNext()) {
+                MemoryBlock f = itr.next();
+                sb.append("(").append(f.baseAddress).append(" , ").append(f.length).append(") ");
+            }
+        }
+        sb.append("\n");
+        ListIterator itr = allocatedList.iterator();
+        while (itr.hasNext()) {
+            MemoryBlock a = itr.next();
+            sb.append("(").append(a.baseAddress).append(" , ").append(1 << orderOf(a.length)).append(") ");
+        }
+        return sb.toString();
+    }
+}
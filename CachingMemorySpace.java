@@ -0,0 +1,414 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a managed memory space that can be used by several threads at once, in which every
+ * thread keeps a small cache of the blocks it recently freed, in front of a ConcurrentMemorySpace
+ * (as glibc's tcache does in front of malloc's arenas). The cache has a bin for every length
+ * up to MAX_CACHED_LENGTH: free pushes a short block onto the calling thread's bin of its
+ * length, and malloc pops a block of the requested length from it, so the common malloc/free
+ * pair never scans, splits or merges the shared free blocks.
+ * <p>
+ * A cached block stays allocated in the ConcurrentMemorySpace. When a bin fills up, free
+ * flushes the older half of it back in one batch (see ConcurrentMemorySpace.free(int[], int)).
+ * defrag flushes the caches of all the threads, including threads that ended, before it
+ * coalesces the free blocks, and malloc flushes them too before it reports a failure, so
+ * caching never makes an allocation fail.
+ * <p>
+ * free must know the length of a block, to find its bin. Every cache maps the base address of
+ * each block that its thread took from the shared memory space, and that it has not returned
+ * there, to the block's length and to whether the block is cached or in use (in a SlotIndex),
+ * so the bookkeeping grows with the number of blocks, rather than with the size of the memory
+ * space. A block keeps its cache, its owner, until it goes back to the shared memory space: free
+ * marks it cached and pushes it onto a bin of its owner, and malloc pops it and marks it in use
+ * again, which changes the value of an address that the map already holds, so the common
+ * malloc/free pair never grows or rehashes the map, and takes no stripe lock. A second free of a
+ * cached block finds it cached, and is ignored.
+ * <p>
+ * A block that another thread allocated goes back to its owner's cache. To find the owner, a
+ * directory maps the base address of every block that some cache owns to that cache's id (in
+ * SlotIndexes, each guarded by a lock of its own, chosen by the low bits of the address). The
+ * directory changes only when a block moves between a cache and the shared memory space, and
+ * free reads it only if the calling thread's cache does not map the address, so a free by
+ * another thread, an invalid free, and a double free each cost one directory lookup and one
+ * cache's lock, whatever the number of threads. Since other threads free into a cache, and
+ * flush it (see below), every cache operation holds the cache's own lock; it is uncontended
+ * unless one of those happens at the same time.
+ * <p>
+ * A cache's bins are returned to the shared memory space only by its own thread (half a bin at a
+ * time, when the bin fills up), by defrag, and by a malloc that fails. So the blocks cached by a
+ * thread that has gone idle stay there, allocated in the ConcurrentMemorySpace, until another
+ * thread calls defrag or runs out of memory.
+ * <p>
+ * A thread's cache is dropped, after its blocks are flushed, once the thread has ended: when
+ * defrag, toString or a failing malloc flushes all the caches, and when a new thread registers
+ * its cache. The blocks in use that a dropped cache owns go back to the shared memory space when
+ * they are freed, and the cache gives up its id after the last of them. The caches hold their
+ * threads through weak references, so they never keep an ended thread from being collected.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in
+ * ConcurrentMemorySpace. toString flushes the caches first, so that cached blocks are shown
+ * as free.
+ */
+public class CachingMemorySpace implements Allocator {
+
+    /** The longest block (in words) that the caches keep. */
+    public static final int MAX_CACHED_LENGTH = 64;
+
+    // The most blocks that a bin holds; when it is full, the older half is flushed
+    private static final int BIN_CAPACITY = 32;
+
+    // The shared memory space behind the caches
+    private ConcurrentMemorySpace memory;
+
+    // The number of allocated blocks, not counting cached blocks
+    private LongAdder allocatedCount = new LongAdder();
+
+    // The number of locks of the directory; a power of two
+    private static final int OWNER_STRIPES = 64;
+
+    // The cache of every thread that used this memory space, and has not been found ended yet,
+    // for defrag to flush
+    private CopyOnWriteArrayList<Cache> caches = new CopyOnWriteArrayList<>();
+
+    // The directory: owners[address & (OWNER_STRIPES - 1)] maps the base address of every block
+    // that a cache owns to the cache's id, and guards itself
+    private SlotIndex[] owners = new SlotIndex[OWNER_STRIPES];
+
+    // The caches by id, including dropped caches that still own blocks in use; null marks a
+    // free id. Replaced, not changed, when it grows, and guarded by this memory space's lock.
+    private volatile Cache[] registry = new Cache[8];
+
+    private ThreadLocal<Cache> cache = ThreadLocal.withInitial(() -> {
+        Cache c = register(new Cache(Thread.currentThread()));
+        flushEnded();
+        caches.add(c);
+        return c;
+    });
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with one stripe per
+     * available processor behind the caches.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public CachingMemorySpace(int maxSize) {
+        this(new ConcurrentMemorySpace(maxSize));
+    }
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with the given number of
+     * stripes behind the caches (see ConcurrentMemorySpace).
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     * @param stripes
+     *            the number of independently locked stripes, between 1 and 64
+     */
+    public CachingMemorySpace(int maxSize, int stripes) {
+        this(new ConcurrentMemorySpace(maxSize, stripes));
+    }
+
+    private CachingMemorySpace(ConcurrentMemorySpace memory) {
+        this.memory = memory;
+        for (int i = 0; i < OWNER_STRIPES; i++) {
+            owners[i] = new SlotIndex();
+        }
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words): from the calling thread's
+     * cache if it holds a block of that length, and otherwise from the shared memory space.
+     * Returns the base address of the allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        Cache own = cache.get();
+        int address = -1;
+        if (length <= MAX_CACHED_LENGTH) {
+            address = own.pop(length);
+        }
+        if (address < 0) {
+            address = memory.malloc(length);
+            if (address < 0) {
+                flushAll();
+                address = memory.malloc(length);
+                if (address < 0) {
+                    return -1;
+                }
+            }
+            setOwner(address, own.id);
+            own.record(address, length);
+        }
+        allocatedCount.increment();
+        return address;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address: into the cache of the
+     * thread that allocated it if the block is short enough, and otherwise into the shared
+     * memory space.
+     *
+     * @param address
+     *            the starting address of the block to free
+     * @throws IllegalArgumentException
+     *         if no block is allocated
+     */
+    public void free(int address) {
+        if (allocatedCount.sum() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        Cache own = cache.get();
+        if (own.free(address) < 0) {
+            Cache owner = ownerOf(address);
+            if (owner == null || owner == own || owner.free(address) < 0) {
+                return;
+            }
+            if (owner.isRetiredAndEmpty()) {
+                unregister(owner);
+            }
+        }
+        allocatedCount.decrement();
+    }
+
+    /** Returns the cache that owns the block at the given address, or null if no cache owns it. */
+    private Cache ownerOf(int address) {
+        SlotIndex stripe = owners[address & (OWNER_STRIPES - 1)];
+        int id;
+        synchronized (stripe) {
+            id = stripe.get(address);
+        }
+        return (id < 0) ? null : registry[id];
+    }
+
+    /** Records the cache of the given id as the owner of the block at the given address. */
+    private void setOwner(int address, int id) {
+        SlotIndex stripe = owners[address & (OWNER_STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.put(address, id);
+        }
+    }
+
+    /** Removes the block at the given address from the directory. */
+    private void clearOwner(int address) {
+        SlotIndex stripe = owners[address & (OWNER_STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.remove(address);
+        }
+    }
+
+    /** Gives the given cache the lowest free id, and returns it. */
+    private synchronized Cache register(Cache c) {
+        Cache[] current = registry;
+        int id = 0;
+        while (id < current.length && current[id] != null) {
+            id++;
+        }
+        if (id == current.length) {
+            current = java.util.Arrays.copyOf(current, current.length * 2);
+        }
+        c.id = id;
+        current[id] = c;
+        registry = current;
+        return c;
+    }
+
+    /** Frees the id of the given dropped cache, which owns no block any more. */
+    private synchronized void unregister(Cache c) {
+        Cache[] current = registry;
+        if (current[c.id] == c) {
+            current[c.id] = null;
+        }
+    }
+
+    /**
+     * Flushes the caches of all the threads, and performs defragmentation of the shared
+     * memory space.
+     */
+    public boolean defrag() {
+        flushAll();
+        return memory.defrag();
+    }
+
+    /** Returns the number of blocks in the calling thread's cache. */
+    public int getCachedBlockCount() {
+        return cache.get().size();
+    }
+
+    /** Flushes the caches of all the threads back to the shared memory space, and drops those of ended threads. */
+    private void flushAll() {
+        for (Cache c : caches) {
+            if (c.hasEnded()) {
+                drop(c);
+            } else {
+                c.flush();
+            }
+        }
+    }
+
+    /** Flushes the caches of the threads that ended back to the shared memory space, and drops them. */
+    private void flushEnded() {
+        for (Cache c : caches) {
+            if (c.hasEnded()) {
+                drop(c);
+            }
+        }
+    }
+
+    /** Flushes and drops the given cache, keeping its id while it still owns blocks in use. */
+    private void drop(Cache c) {
+        caches.remove(c);
+        if (c.retire()) {
+            unregister(c);
+        }
+    }
+
+    /** Returns the number of thread caches that this memory space keeps. */
+    int getCacheCount() {
+        return caches.size();
+    }
+
+    /**
+     * A textual representation of the free blocks and the allocated blocks of this memory space,
+     * for debugging purposes. Flushes the caches of all the threads first.
+     */
+    @Override
+    public String toString() {
+        flushAll();
+        return memory.toString();
+    }
+
+    /**
+     * The cache of one thread: bins[k] holds the addresses of cached blocks of length k + 1,
+     * the most recently freed last, and lengths maps the blocks that the cache owns to their
+     * lengths, or to -1 - length if they are cached (-1 itself means that the cache does not own
+     * the block, and every length fits in an int this way, however long). Its lock is taken by its own thread,
+     * and by the threads that free a block that it owns, or flush it.
+     */
+    private class Cache {
+
+        private int[][] bins = new int[MAX_CACHED_LENGTH][];
+        private int[] counts = new int[MAX_CACHED_LENGTH];
+        private SlotIndex lengths = new SlotIndex();
+
+        // The index of this cache in the registry
+        int id;
+
+        // Set once the cache is dropped, after which it caches no block
+        private boolean retired;
+
+        // The thread that owns this cache
+        private java.lang.ref.WeakReference<Thread> owner;
+
+        Cache(Thread owner) {
+            this.owner = new java.lang.ref.WeakReference<>(owner);
+        }
+
+        /** Checks if the thread that owns this cache has ended. */
+        boolean hasEnded() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        /**
+         * Returns the address of a cached block of the given length, which is marked in use
+         * again, or -1 if there is none.
+         */
+        synchronized int pop(int length) {
+            int k = length - 1;
+            if (counts[k] == 0) {
+                return -1;
+            }
+            int address = bins[k][--counts[k]];
+            lengths.put(address, length);
+            return address;
+        }
+
+        /** Maps the given block, which the shared memory space just allocated, as in use. */
+        synchronized void record(int address, int length) {
+            lengths.put(address, length);
+        }
+
+        /**
+         * Frees the given block, if this cache owns it and it is in use: pushes it onto its bin,
+         * unless it is too long or this cache was dropped, in which case it goes back to the
+         * shared memory space. Returns the length of the block, or -1 if this cache owns no such
+         * block in use.
+         */
+        synchronized int free(int address) {
+            int length = lengths.get(address);
+            if (length < 0) {
+                return -1;  // not owned, or cached
+            }
+            if (length > MAX_CACHED_LENGTH || retired) {
+                lengths.remove(address);
+                clearOwner(address);
+                memory.free(address);
+                return length;
+            }
+            lengths.put(address, -1 - length);
+            int k = length - 1;
+            if (bins[k] == null) {
+                bins[k] = new int[BIN_CAPACITY];
+            }
+            int[] bin = bins[k];
+            bin[counts[k]++] = address;
+            if (counts[k] == BIN_CAPACITY) {
+                int half = BIN_CAPACITY / 2;
+                release(bin, half);
+                System.arraycopy(bin, half, bin, 0, BIN_CAPACITY - half);
+                counts[k] = BIN_CAPACITY - half;
+            }
+            return length;
+        }
+
+        /**
+         * Flushes this cache, and marks it dropped, so that the blocks it owns bypass it when they
+         * are freed. Returns true if it owns no block at all.
+         */
+        synchronized boolean retire() {
+            flush();
+            retired = true;
+            return lengths.getSize() == 0;
+        }
+
+        /** Checks if this cache was dropped, and owns no block any more. */
+        synchronized boolean isRetiredAndEmpty() {
+            return retired && lengths.getSize() == 0;
+        }
+
+        /** Frees all the cached blocks in the shared memory space. */
+        synchronized void flush() {
+            for (int k = 0; k < MAX_CACHED_LENGTH; k++) {
+                if (counts[k] > 0) {
+                    release(bins[k], counts[k]);
+                    counts[k] = 0;
+                }
+            }
+        }
+
+        /** Returns the first count cached blocks of the given bin to the shared memory space. */
+        private void release(int[] bin, int count) {
+            for (int i = 0; i < count; i++) {
+                lengths.remove(bin[i]);
+                clearOwner(bin[i]);
+            }
+            memory.free(bin, count);
+        }
+
+        synchronized int size() {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
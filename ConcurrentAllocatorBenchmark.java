@@ -0,0 +1,123 @@
+import java.util.function.IntFunction;
+
+/* This program measures the throughput of malloc/free pairs when several threads share one
+ * memory space, at 1, 2, 4, 8 and 16 threads, for:
+ *
+ * (1) a MemorySpace behind a single lock, which is how the simulations share one today:
+ *     every call holds the lock, so the threads take turns;
+ * (2) a ConcurrentMemorySpace, with 16 independently locked stripes;
+ * (3) a CachingMemorySpace, whose thread-local caches sit in front of the same 16 stripes;
+ * (4) a LockFreeMemorySpace, whose free list is changed by compare-and-set, without locks.
+ *
+ * Every thread keeps up to 64 live blocks of 1 to 16 words, and frees a random one of them,
+ * or allocates a new one, with equal probability, and calls defrag every 1000 operations, so
+ * that the free lists stay short. The total number of operations is the same at every thread
+ * count, and is split evenly among the threads. The speedup that striping gives is bounded by
+ * the number of processors: on a single processor, the threads take turns in any case, and the
+ * benchmark measures the cost of the locking itself.
+ *
+ * Usage: java ConcurrentAllocatorBenchmark [operations] [memory size]
+ *        (defaults: 4000000 operations, 1048576 words)
+ */
+public class ConcurrentAllocatorBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws InterruptedException {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 4000000;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 1 << 20;
+        String[] names = {
+            "MemorySpace (one lock)",
+            "ConcurrentMemorySpace (16 stripes)",
+            "CachingMemorySpace (16 stripes)",
+            "LockFreeMemorySpace",
+        };
+        java.util.List<IntFunction<Allocator>> factories = java.util.List.of(
+            n -> new LockedAllocator(new MemorySpace(n)),
+            n -> new ConcurrentMemorySpace(n, 16),
+            n -> new CachingMemorySpace(n, 16),
+            n -> new LockFreeMemorySpace(n));
+
+        // Warms up the JIT
+        for (IntFunction<Allocator> factory : factories) {
+            run(factory.apply(size), 4, Math.min(ops, 1000000));
+        }
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-36s", "allocator");
+        for (int threads : THREADS) {
+            System.out.printf(" %-12s", threads + " thr (ops/s)");
+        }
+        System.out.println();
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-36s", names[i]);
+            for (int threads : THREADS) {
+                long nanos = run(factories.get(i).apply(size), threads, ops);
+                System.out.printf(" %-12.0f", ops / (nanos / 1e9));
+            }
+            System.out.println();
+        }
+    }
+
+    /** Runs ops operations on the given memory space, split among the given number of threads; returns the elapsed time in ns. */
+    private static long run(Allocator memory, int threads, int ops) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> churn(memory, ops / threads, seed));
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void churn(Allocator memory, int ops, int seed) {
+        java.util.Random random = new java.util.Random(seed);
+        int[] live = new int[64];
+        int liveCount = 0;
+        for (int op = 0; op < ops; op++) {
+            if (liveCount == live.length || (liveCount > 0 && random.nextBoolean())) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                live[i] = live[--liveCount];
+            } else {
+                int address = memory.malloc(1 + random.nextInt(16));
+                if (address >= 0) {
+                    live[liveCount++] = address;
+                }
+            }
+            if (op % 1000 == 999) {
+                memory.defrag();
+            }
+        }
+        while (liveCount > 0) {
+            memory.free(live[--liveCount]);
+        }
+    }
+
+    /** An Allocator whose every call holds one lock, as the simulations use MemorySpace today. */
+    private static class LockedAllocator implements Allocator {
+
+        private final Allocator memory;
+
+        LockedAllocator(Allocator memory) {
+            this.memory = memory;
+        }
+
+        public synchronized int malloc(int length) {
+            return memory.malloc(length);
+        }
+
+        public synchronized void free(int address) {
+            memory.free(address);
+        }
+
+        public synchronized boolean defrag() {
+            return memory.defrag();
+        }
+    }
+}
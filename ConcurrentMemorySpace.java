@@ -0,0 +1,504 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a managed memory space that can be used by several threads at once. The address
+ * range is partitioned into stripes: stripe k is a MemorySpace of its own (with its own free
+ * and allocated lists) that manages the addresses from k * (maxSize / stripes) on, and is
+ * guarded by a lock of its own, so threads that work on different stripes never wait for
+ * each other.
+ * <p>
+ * Every thread has a home stripe, assigned round-robin when the thread first calls malloc,
+ * and malloc allocates from it if it can. If the home stripe is locked by another thread, or
+ * has no free block that is large enough, malloc tries the other stripes in turn, skipping
+ * those that are locked, and waits for the skipped stripes only if none of the others could
+ * allocate. free locks the stripe that owns the address, which is found by a division. A block
+ * never spans two stripes, so a request that is longer than the longest stripe always fails.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace,
+ * with two differences: defrag coalesces each stripe separately, so it leaves (at least) one
+ * free block per stripe, and toString lists the free blocks and the allocated blocks stripe by
+ * stripe, in allocation order within each stripe. toString locks all the stripes, so it
+ * reflects a single moment. Taking the locks in ascending order, while malloc and free hold
+ * one lock at a time, rules out deadlocks.
+ * <p>
+ * Optionally, a background defragmentation daemon (see startDefragDaemon) watches the stripes,
+ * and coalesces a stripe whose free list has grown too long or too fragmented, in slices of
+ * MemorySpace.defragStep, so that the threads that allocate never wait for a whole defrag.
+ */
+public class ConcurrentMemorySpace implements Allocator {
+
+    // The stripes, and the locks that guard them: locks[k] guards stripes[k]
+    private MemorySpace[] stripes;
+    private ReentrantLock[] locks;
+
+    // The length of every stripe but the last, which also takes the rest of the address range
+    private int stripeSize;
+
+    // The size of the whole memory space
+    private int maxSize;
+
+    // The number of allocated blocks, in all the stripes. A LongAdder, rather than an atomic
+    // counter, so that threads that work on different stripes do not contend on it.
+    private LongAdder allocatedCount = new LongAdder();
+
+    // The home stripe of every thread, assigned round-robin, so that consecutive threads
+    // start from different stripes
+    private AtomicInteger nextHomeStripe = new AtomicInteger();
+
+    private ThreadLocal<Integer> homeStripes =
+            ThreadLocal.withInitial(() -> Math.floorMod(nextHomeStripe.getAndIncrement(), stripes.length));
+
+    /** The most free nodes that the defragmentation daemon coalesces while it holds a stripe's lock. */
+    public static final int DEFRAG_SLICE = 256;
+
+    // The defragmentation daemon, or null if it is not running, and its trigger thresholds,
+    // which may be changed while it runs
+    private Thread defragDaemon;
+    private volatile int maxFreeBlocks = 64;
+    private volatile double maxFragmentation = 0.5;
+    private volatile int thresholdChanges;  // the number of calls to setDefragThresholds, so the daemon checks again
+
+    // The time the daemon has held stripe locks, and the number of coalescing runs it completed
+    private LongAdder defragNanos = new LongAdder();
+    private LongAdder defragRuns = new LongAdder();
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with one stripe per
+     * available processor.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public ConcurrentMemorySpace(int maxSize) {
+        this(maxSize, Math.min(64, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, partitioned into the given
+     * number of stripes (fewer if maxSize is smaller than that, as every stripe holds at least
+     * one word). Each stripe allocates first-fit, and appends freed blocks to its free list.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     * @param stripes
+     *            the number of independently locked stripes, between 1 and 64
+     * @throws IllegalArgumentException
+     *         if stripes is not between 1 and 64
+     */
+    public ConcurrentMemorySpace(int maxSize, int stripes) {
+        if (stripes < 1 || stripes > 64) {
+            throw new IllegalArgumentException("stripes must be between 1 and 64");
+        }
+        int n = Math.max(1, Math.min(stripes, maxSize));
+        this.maxSize = maxSize;
+        this.stripeSize = maxSize / n;
+        this.stripes = new MemorySpace[n];
+        this.locks = new ReentrantLock[n];
+        for (int k = 0; k < n; k++) {
+            int base = k * stripeSize;
+            int length = (k == n - 1) ? maxSize - base : stripeSize;
+            this.stripes[k] = new MemorySpace(base, length, AllocationPolicy.FIRST_FIT, false);
+            this.locks[k] = new ReentrantLock();
+        }
+    }
+
+    /** Returns the number of stripes. */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /** Returns the stripe that owns the given address, or -1 if the address is out of range. */
+    int stripeOf(int address) {
+        if (address < 0 || address >= maxSize) {
+            return -1;
+        }
+        return Math.min(address / stripeSize, stripes.length - 1);
+    }
+
+    /** Returns the home stripe of the calling thread. */
+    private int homeStripe() {
+        return homeStripes.get();
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), from the calling thread's home
+     * stripe if possible, and otherwise from the first other stripe that can allocate it.
+     * Returns the base address of the allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int n = stripes.length;
+        int k = homeStripe();
+        long skipped = 0;  // bit k is set if stripe k was locked by another thread
+        for (int i = 0; i < n; i++) {
+            if (locks[k].tryLock()) {
+                int address = mallocLocked(k, length);
+                if (address >= 0) {
+                    return address;
+                }
+            } else {
+                skipped |= 1L << k;
+            }
+            k = (k + 1 == n) ? 0 : k + 1;
+        }
+        while (skipped != 0) {
+            k = Long.numberOfTrailingZeros(skipped);
+            skipped &= skipped - 1;
+            locks[k].lock();
+            int address = mallocLocked(k, length);
+            if (address >= 0) {
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    /** Allocates from stripe k, whose lock the caller holds, and releases the lock. */
+    private int mallocLocked(int k, int length) {
+        try {
+            int address = stripes[k].malloc(length);
+            if (address >= 0) {
+                allocatedCount.increment();
+            }
+            return address;
+        } finally {
+            locks[k].unlock();
+        }
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, in the stripe that
+     * owns the address.
+     *
+     * @param address
+     *            the starting address of the block to free
+     * @throws IllegalArgumentException
+     *         if no block is allocated
+     */
+    public void free(int address) {
+        if (allocatedCount.sum() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        int k = stripeOf(address);
+        if (k < 0) {
+            return;
+        }
+        locks[k].lock();
+        try {
+            MemorySpace stripe = stripes[k];
+            int before = stripe.getAllocatedBlockCount();
+            if (before > 0) {
+                stripe.free(address);
+                if (stripe.getAllocatedBlockCount() < before) {
+                    allocatedCount.decrement();
+                }
+            }
+        } finally {
+            locks[k].unlock();
+        }
+    }
+
+    /**
+     * Frees the memory blocks whose base addresses are the first count elements of the given
+     * array, as free does, but holds a stripe's lock across consecutive addresses that the
+     * stripe owns, instead of locking it once per block.
+     *
+     * @param addresses
+     *            the starting addresses of the blocks to free
+     * @param count
+     *            the number of addresses to take from the array
+     * @throws IllegalArgumentException
+     *         if count is not 0 and no block is allocated
+     */
+    public void free(int[] addresses, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (allocatedCount.sum() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        int held = -1;  // the stripe whose lock is held, if any
+        try {
+            for (int i = 0; i < count; i++) {
+                int k = stripeOf(addresses[i]);
+                if (k < 0) {
+                    continue;
+                }
+                if (k != held) {
+                    if (held >= 0) {
+                        locks[held].unlock();
+                    }
+                    locks[k].lock();
+                    held = k;
+                }
+                MemorySpace stripe = stripes[k];
+                int before = stripe.getAllocatedBlockCount();
+                if (before > 0) {
+                    stripe.free(addresses[i]);
+                    if (stripe.getAllocatedBlockCount() < before) {
+                        allocatedCount.decrement();
+                    }
+                }
+            }
+        } finally {
+            if (held >= 0) {
+                locks[held].unlock();
+            }
+        }
+    }
+
+    /**
+     * Performs defragmentation of this memory space, one stripe at a time: while a stripe is
+     * defragmented, the other stripes can be used.
+     */
+    public boolean defrag() {
+        for (int k = 0; k < stripes.length; k++) {
+            locks[k].lock();
+            try {
+                stripes[k].defrag();
+            } finally {
+                locks[k].unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts a daemon thread that checks every stripe, every periodMillis milliseconds, and
+     * coalesces the free list of a stripe that has more free blocks than the free-block threshold,
+     * or whose fragmentation (1 - largest free block / free size, see
+     * MemorySpace.getFragmentation) is above the fragmentation threshold. The thresholds apply
+     * to every stripe separately (see setDefragThresholds).
+     * <p>
+     * The daemon never waits for a lock: it takes a stripe's lock with tryLock, and skips the
+     * stripe if another thread holds it. Once a stripe has crossed a threshold, the daemon
+     * coalesces it by calls to defragStep(DEFRAG_SLICE), releasing the lock after each, until
+     * a cycle of defragStep has run to its end (see MemorySpace.getDefragCycleCount), which is a
+     * run; meanwhile it goes round the other stripes. A run ends even if other threads changed
+     * the free list during it, so that the daemon does not chase a stripe that is in use: the
+     * blocks that it missed are left to the run that a later check starts, if the stripe is
+     * still above a threshold. The daemon sleeps until the next check when no run is in
+     * progress. A malloc that finds a stripe locked by the daemon moves on to the other stripes,
+     * as it does for any locked stripe, and waits at most for one slice. Checking the
+     * fragmentation takes a walk of the free list, so a stripe is checked only if its free list
+     * has changed since its last check (see MemorySpace.getFreeListVersion): an idle stripe
+     * costs nothing, even if it stays fragmented because its free blocks are separated by
+     * allocated blocks.
+     *
+     * @param periodMillis
+     *            the time between two checks of the stripes, in milliseconds
+     * @throws IllegalArgumentException
+     *         if periodMillis is not positive
+     * @throws IllegalStateException
+     *         if the daemon is already running
+     */
+    public synchronized void startDefragDaemon(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive");
+        }
+        if (defragDaemon != null) {
+            throw new IllegalStateException("the defragmentation daemon is already running");
+        }
+        defragDaemon = new Thread(() -> runDefragDaemon(periodMillis), "ConcurrentMemorySpace-defrag");
+        defragDaemon.setDaemon(true);
+        defragDaemon.start();
+    }
+
+    /**
+     * Stops the defragmentation daemon, if it is running, and waits for it to finish its slice.
+     */
+    public synchronized void stopDefragDaemon() {
+        if (defragDaemon == null) {
+            return;
+        }
+        defragDaemon.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                defragDaemon.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        defragDaemon = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns true if the defragmentation daemon is running. */
+    public synchronized boolean isDefragDaemonRunning() {
+        return defragDaemon != null;
+    }
+
+    /**
+     * Sets the thresholds above which the defragmentation daemon coalesces a stripe (by default,
+     * 64 free blocks, and a fragmentation of 0.5).
+     *
+     * @param maxFreeBlocks
+     *            the most free blocks that a stripe may have before it is coalesced
+     * @param maxFragmentation
+     *            the highest fragmentation, between 0 and 1, that a stripe may have before it is coalesced
+     * @throws IllegalArgumentException
+     *         if maxFreeBlocks is negative, or maxFragmentation is not between 0 and 1
+     */
+    public synchronized void setDefragThresholds(int maxFreeBlocks, double maxFragmentation) {
+        if (maxFreeBlocks < 0) {
+            throw new IllegalArgumentException("maxFreeBlocks must not be negative");
+        }
+        if (!(maxFragmentation >= 0 && maxFragmentation <= 1)) {
+            throw new IllegalArgumentException("maxFragmentation must be between 0 and 1");
+        }
+        this.maxFreeBlocks = maxFreeBlocks;
+        this.maxFragmentation = maxFragmentation;
+        thresholdChanges++;
+    }
+
+    /** Returns the most free blocks that a stripe may have before the daemon coalesces it. */
+    public int getMaxFreeBlocks() {
+        return maxFreeBlocks;
+    }
+
+    /** Returns the highest fragmentation that a stripe may have before the daemon coalesces it. */
+    public double getMaxFragmentation() {
+        return maxFragmentation;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, that the defragmentation daemon has held stripe
+     * locks, checking the thresholds and coalescing.
+     */
+    public long getDefragNanos() {
+        return defragNanos.sum();
+    }
+
+    /** Returns the number of runs of the defragmentation daemon, over all the stripes, that ran to their end. */
+    public long getDefragRuns() {
+        return defragRuns.sum();
+    }
+
+    /** The loop of the defragmentation daemon, which runs until the thread is interrupted. */
+    private void runDefragDaemon(long periodMillis) {
+        boolean[] coalescing = new boolean[stripes.length];  // the stripes in a run
+        // The version of every stripe's free list when its thresholds were last checked; the
+        // fragmentation takes a walk of the free list, which is skipped if nothing has changed
+        long[] checkedVersions = new long[stripes.length];
+        java.util.Arrays.fill(checkedVersions, -1);
+        int checkedThresholds = thresholdChanges;
+        long period = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        long nextCheck = System.nanoTime();
+        try {
+            while (true) {
+                // The thresholds are checked once per period, so that a stripe whose run has
+                // ended is not started again at once while the other stripes are coalesced
+                boolean check = System.nanoTime() - nextCheck >= 0;
+                if (check) {
+                    nextCheck = System.nanoTime() + period;
+                }
+                if (checkedThresholds != thresholdChanges) {
+                    checkedThresholds = thresholdChanges;
+                    java.util.Arrays.fill(checkedVersions, -1);
+                }
+                boolean busy = false;
+                for (int k = 0; k < stripes.length; k++) {
+                    if ((coalescing[k] || check) && locks[k].tryLock()) {
+                        long start = System.nanoTime();
+                        try {
+                            MemorySpace stripe = stripes[k];
+                            if (!coalescing[k] && stripe.getFreeListVersion() != checkedVersions[k]) {
+                                coalescing[k] = stripe.getFreeBlockCount() > maxFreeBlocks
+                                        || (stripe.getFreeBlockCount() > 1 && stripe.getFragmentation() > maxFragmentation);
+                                checkedVersions[k] = stripe.getFreeListVersion();
+                            }
+                            if (coalescing[k]) {
+                                long cycles = stripe.getDefragCycleCount();
+                                if (stripe.defragStep(DEFRAG_SLICE) || stripe.getDefragCycleCount() != cycles) {
+                                    coalescing[k] = false;
+                                    defragRuns.increment();
+                                }
+                            }
+                        } finally {
+                            locks[k].unlock();
+                            defragNanos.add(System.nanoTime() - start);
+                        }
+                    }
+                    busy |= coalescing[k];
+                }
+                if (Thread.interrupted()) {
+                    return;
+                }
+                if (busy) {
+                    Thread.yield();
+                } else {
+                    TimeUnit.NANOSECONDS.sleep(nextCheck - System.nanoTime());
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopDefragDaemon was called
+        }
+    }
+
+    /** Returns the number of free blocks, in all the stripes. */
+    public int getFreeBlockCount() {
+        int total = 0;
+        for (int k = 0; k < stripes.length; k++) {
+            locks[k].lock();
+            try {
+                total += stripes[k].getFreeBlockCount();
+            } finally {
+                locks[k].unlock();
+            }
+        }
+        return total;
+    }
+
+    /** Returns the total length (in words) of the free blocks, in all the stripes. */
+    public int getFreeSize() {
+        int total = 0;
+        for (int k = 0; k < stripes.length; k++) {
+            locks[k].lock();
+            try {
+                total += stripes[k].getFreeSize();
+            } finally {
+                locks[k].unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * A textual representation of the free blocks and the allocated blocks of this memory space,
+     * stripe by stripe, for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        for (int k = 0; k < stripes.length; k++) {
+            locks[k].lock();
+        }
+        try {
+            StringBuilder free = new StringBuilder();
+            StringBuilder allocated = new StringBuilder();
+            for (MemorySpace stripe : stripes) {
+                String state = stripe.toString();
+                int newline = state.indexOf('\n');
+                free.append(state, 0, newline);
+                allocated.append(state, newline + 1, state.length());
+            }
+            return free.append("\n").append(allocated).toString();
+        } finally {
+            for (int k = stripes.length - 1; k >= 0; k--) {
+                locks[k].unlock();
+            }
+        }
+    }
+}
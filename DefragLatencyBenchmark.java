@@ -0,0 +1,65 @@
+/* This program compares the pauses of stop-the-world and incremental defragmentation of the
+ * list-based MemorySpace (first-fit, freed blocks appended to the free list).
+ *
+ * Each mode replays the random trace of AllocationTrace in consecutive phases:
+ *
+ * (1) defrag: defrag is called after every 1000th operation, and its whole cost falls on
+ *     that operation;
+ * (2) defragStep: defragStep(64) is called after every operation, so each operation pays for
+ *     at most 64 free nodes of coalescing.
+ *
+ * Every operation is timed on its own, together with the defragmentation that follows it, and
+ * after every phase the program prints the number of free blocks, and the 50th, 99th and 99.9th
+ * percentiles and the maximum of the latencies of that phase, in nanoseconds.
+ *
+ * Usage: java DefragLatencyBenchmark [phases] [operations per phase] [memory size]
+ *        (defaults: 8 phases, 25000 operations, 262144 words)
+ */
+public class DefragLatencyBenchmark {
+
+    public static void main(String[] args) {
+        int phases = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 25000;
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : 1 << 18;
+
+        // Warms up the JIT
+        run(new MemorySpace(size), false, 2, ops, size, null);
+        run(new MemorySpace(size), true, 2, ops, size, null);
+
+        System.out.println("defrag every 1000 operations");
+        System.out.println("  phase  free blocks  p50     p99     p999    max");
+        run(new MemorySpace(size), false, phases, ops, size, System.out);
+        System.out.println("defragStep(64) after every operation");
+        System.out.println("  phase  free blocks  p50     p99     p999    max");
+        run(new MemorySpace(size), true, phases, ops, size, System.out);
+    }
+
+    private static void run(MemorySpace memory, boolean incremental, int phases, int ops, int size,
+            java.io.PrintStream out) {
+        AllocationTrace trace = new AllocationTrace(size, 2024);
+        long[] latencies = new long[ops];
+        int count = 0;
+        for (int phase = 1; phase <= phases; phase++) {
+            for (int op = 0; op < ops; op++) {
+                long start = System.nanoTime();
+                trace.step(memory);
+                if (incremental) {
+                    memory.defragStep(64);
+                } else if (++count % 1000 == 0) {
+                    memory.defrag();
+                }
+                latencies[op] = System.nanoTime() - start;
+            }
+            java.util.Arrays.sort(latencies);
+            if (out != null) {
+                out.printf("  %-6d %-12d %-7d %-7d %-7d %d%n", phase, memory.getFreeBlockCount(),
+                        percentile(latencies, 0.50), percentile(latencies, 0.99),
+                        percentile(latencies, 0.999), latencies[ops - 1]);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+}
@@ -0,0 +1,53 @@
+/* This program measures the Java heap that a memory space needs in order to model a heap
+ * with many fragments, for MemorySpace (a MemoryBlock and a Node per block) and for
+ * PackedMemorySpace (a packed long per block).
+ *
+ * For every size n, the memory space is filled with n one-word blocks, and every other block
+ * is freed, leaving n/2 blocks in the free list and n/2 blocks in the allocated list. Then the
+ * heap in use is measured after a full garbage collection, together with the time that the
+ * collection took (which grows with the number of live objects to trace).
+ *
+ * Usage: java FootprintBenchmark [sizes...]   (default sizes: 100000 1000000 4000000)
+ */
+public class FootprintBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = { 100000, 1000000, 4000000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("blocks     allocator            heap (MB)   bytes/block  full GC (ms)");
+        for (int n : sizes) {
+            measure("MemorySpace", new MemorySpace(n), n);
+            measure("PackedMemorySpace", new PackedMemorySpace(n), n);
+        }
+    }
+
+    private static void measure(String name, Allocator memory, int n) {
+        long before = usedAfterGc();
+        for (int i = 0; i < n; i++) {
+            memory.malloc(1);
+        }
+        for (int i = 0; i < n; i += 2) {
+            memory.free(i);
+        }
+        long start = System.nanoTime();
+        long after = usedAfterGc();
+        long gc = System.nanoTime() - start;
+        long bytes = after - before;
+        System.out.printf("%-10d %-20s %-11.1f %-12.1f %.1f%n",
+                n, name, bytes / 1e6, (double) bytes / n, gc / 1e6);
+        if (memory.malloc(0) != -1) {
+            throw new IllegalStateException();  // keeps the memory space alive until here
+        }
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Represents a managed memory space whose blocks are named by handles instead of addresses, so
+ * that they can be moved: allocate returns a handle, which stays valid until the block is
+ * released, while the block's base address may change whenever the memory space is compacted.
+ * A handle table maps every handle to the block's MemoryBlock, whose base address compaction
+ * updates in place, so a handle is resolved in O(1) time, and compaction does not need to touch
+ * the table at all.
+ * <p>
+ * The blocks are managed by a MemorySpace (first-fit, freed blocks appended to the free list).
+ * compact slides all the allocated blocks down to the lowest addresses, leaving a single free
+ * block (see MemorySpace.compact), which reclaims the holes between allocated blocks that defrag
+ * cannot. If the memory space has an arena, the words of the moved blocks move with them, and the
+ * accessors read and write a block's words by its handle; every access is checked against the
+ * block's length.
+ * <p>
+ * Handles are small non-negative ints. A released handle may be handed out again by a later
+ * allocate, as file descriptors are.
+ */
+public class HandleMemorySpace {
+
+    // The blocks, and the words if there is an arena
+    private MemorySpace memory;
+    private Arena arena;
+
+    // handles[h] is the allocated block of handle h, or null if h is not in use
+    private MemoryBlock[] handles = new MemoryBlock[16];
+    private int handleCount;  // handles 0 to handleCount - 1 have been handed out at least once
+
+    // The released handles, for reuse
+    private int[] releasedHandles = new int[16];
+    private int releasedCount;
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, without an arena.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public HandleMemorySpace(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Constructs a new managed memory space of a given maximal size, with or without an arena
+     * that holds its words.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed (at most Arena.MAX_WORDS with an arena)
+     * @param withArena
+     *            true to back the memory space with an arena
+     */
+    public HandleMemorySpace(int maxSize, boolean withArena) {
+        memory = new MemorySpace(maxSize);
+        arena = withArena ? new Arena(maxSize) : null;
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), as MemorySpace.malloc does.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the handle of the allocated block, or -1 if unable to allocate
+     */
+    public int allocate(int length) {
+        int address = memory.malloc(length);
+        if (address < 0) {
+            return -1;
+        }
+        int handle;
+        if (releasedCount > 0) {
+            handle = releasedHandles[--releasedCount];
+        } else {
+            if (handleCount == handles.length) {
+                handles = java.util.Arrays.copyOf(handles, handleCount * 2);
+            }
+            handle = handleCount++;
+        }
+        handles[handle] = memory.getAllocatedBlock(address);
+        return handle;
+    }
+
+    /**
+     * Frees the block of the given handle, as MemorySpace.free does, and releases the handle.
+     *
+     * @param handle
+     *        the handle of an allocated block
+     * @throws IllegalArgumentException
+     *         if the handle is not in use
+     */
+    public void release(int handle) {
+        MemoryBlock blk = block(handle);
+        handles[handle] = null;
+        if (releasedCount == releasedHandles.length) {
+            releasedHandles = java.util.Arrays.copyOf(releasedHandles, releasedCount * 2);
+        }
+        releasedHandles[releasedCount++] = handle;
+        memory.free(blk.baseAddress);
+    }
+
+    /** Returns the block of the given handle, or throws an IllegalArgumentException if the handle is not in use. */
+    private MemoryBlock block(int handle) {
+        if (handle < 0 || handle >= handleCount || handles[handle] == null) {
+            throw new IllegalArgumentException("handle " + handle + " is not in use");
+        }
+        return handles[handle];
+    }
+
+    /**
+     * Returns the present base address of the block of the given handle, which compact may change.
+     *
+     * @throws IllegalArgumentException
+     *         if the handle is not in use
+     */
+    public int getAddress(int handle) {
+        return block(handle).baseAddress;
+    }
+
+    /**
+     * Returns the length of the block of the given handle.
+     *
+     * @throws IllegalArgumentException
+     *         if the handle is not in use
+     */
+    public int getLength(int handle) {
+        return block(handle).length;
+    }
+
+    /**
+     * Merges adjacent free blocks, as MemorySpace.defrag does. No block moves.
+     */
+    public boolean defrag() {
+        return memory.defrag();
+    }
+
+    /**
+     * Moves all the allocated blocks to the lowest addresses, with their words if there is an
+     * arena, and leaves all the free space in a single free block (see MemorySpace.compact).
+     * Every handle stays valid.
+     */
+    public void compact() {
+        memory.compact(arena);
+    }
+
+    /** Returns the arena that holds the words of this memory space, or null if there is none. */
+    public Arena getArena() {
+        return arena;
+    }
+
+    /**
+     * Reads a word of the block of the given handle, as a long.
+     *
+     * @param handle
+     *        the handle of an allocated block
+     * @param offset
+     *        the offset of the word within the block
+     * @throws IllegalArgumentException
+     *         if the handle is not in use, or if the offset is not within the block
+     * @throws IllegalStateException
+     *         if this memory space has no arena
+     */
+    public long getLong(int handle, int offset) {
+        return arena().getLong(word(handle, offset));
+    }
+
+    /**
+     * Writes a word of the block of the given handle, as a long.
+     *
+     * @throws IllegalArgumentException
+     *         if the handle is not in use, or if the offset is not within the block
+     * @throws IllegalStateException
+     *         if this memory space has no arena
+     */
+    public void putLong(int handle, int offset, long value) {
+        arena().putLong(word(handle, offset), value);
+    }
+
+    /**
+     * Reads a word of the block of the given handle, as a double.
+     *
+     * @throws IllegalArgumentException
+     *         if the handle is not in use, or if the offset is not within the block
+     * @throws IllegalStateException
+     *         if this memory space has no arena
+     */
+    public double getDouble(int handle, int offset) {
+        return arena().getDouble(word(handle, offset));
+    }
+
+    /**
+     * Writes a word of the block of the given handle, as a double.
+     *
+     * @throws IllegalArgumentException
+     *         if the handle is not in use, or if the offset is not within the block
+     * @throws IllegalStateException
+     *         if this memory space has no arena
+     */
+    public void putDouble(int handle, int offset, double value) {
+        arena().putDouble(word(handle, offset), value);
+    }
+
+    private Arena arena() {
+        if (arena == null) {
+            throw new IllegalStateException("this memory space has no arena");
+        }
+        return arena;
+    }
+
+    /** Returns the address of the word at the given offset of the block of the given handle. */
+    private int word(int handle, int offset) {
+        MemoryBlock blk = block(handle);
+        if (offset < 0 || offset >= blk.length) {
+            throw new IllegalArgumentException("offset must be between 0 and the block's length");
+        }
+        return blk.baseAddress + offset;
+    }
+
+    /** Returns the number of blocks in the free list. */
+    public int getFreeBlockCount() {
+        return memory.getFreeBlockCount();
+    }
+
+    /**
+     * A textual representation of the free list and the allocated list of this memory space,
+     * for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        return memory.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Represents a list of memory blocks with distinct base addresses, such as the allocated
+ * blocks of a memory space. Blocks are kept in insertion order, and are also indexed by
+ * base address, so a block can be found and removed by its address in O(1) time.
+ */
+public class IndexedList {
+
+	// The blocks, in insertion order
+	private LinkedList list;
+
+	// Maps the base address of every block to its node in the list,
+	// which the doubly linked list unlinks in O(1) time
+	private AddressIndex index;
+
+	/**
+	 * Constructs a new, empty list.
+	 */
+	public IndexedList() {
+		this(0);
+	}
+
+	/**
+	 * Constructs a new, empty list, whose removed nodes are recycled through a node pool
+	 * of the given size (see LinkedList).
+	 *
+	 * @param poolLimit
+	 *        the most removed nodes that the pool keeps (0 turns pooling off)
+	 */
+	public IndexedList(int poolLimit) {
+		list = new LinkedList(poolLimit);
+		index = new AddressIndex();
+	}
+
+	public int getSize() {
+		return list.getSize();
+	}
+
+	/**
+	 * Checks if a block with the given base address is in this list.
+	 *
+	 * @param address
+	 *        the given base address
+	 * @return true if such a block is in this list, false otherwise
+	 */
+	public boolean contains(int address) {
+		return index.containsKey(address);
+	}
+
+	/**
+	 * Gets the block whose base address equals the given address.
+	 *
+	 * @param address
+	 *        the given base address
+	 * @return the block, or null if no block in this list has the given base address
+	 */
+	public MemoryBlock get(int address) {
+		Node node = index.get(address);
+		return (node == null) ? null : node.block;
+	}
+
+	/**
+	 * Returns the first block of this list, or null if this list is empty.
+	 */
+	public MemoryBlock getFirst() {
+		Node node = list.getFirst();
+		return (node == null) ? null : node.block;
+	}
+
+	/**
+	 * Adds the given block to the end of this list.
+	 *
+	 * @param block
+	 *        the block to add, whose base address must not be in this list
+	 */
+	public void add(MemoryBlock block) {
+		list.addLast(block);
+		index.put(block.baseAddress, list.getLast());
+	}
+
+	/**
+	 * Removes the block whose base address equals the given address from this list.
+	 *
+	 * @param address
+	 *        the base address of the block to remove
+	 * @return the removed block, or null if no block in this list has the given base address
+	 */
+	public MemoryBlock remove(int address) {
+		Node node = index.remove(address);
+		if (node == null) {
+			return null;
+		}
+		MemoryBlock block = node.block;
+		list.unlink(node);
+		return block;
+	}
+
+	/**
+	 * Indexes every block again by its base address, after the base addresses of blocks in
+	 * this list were changed (as compaction does). The blocks must still have distinct base addresses.
+	 */
+	public void reindex() {
+		index.clear();
+		for (Node current = list.getFirst(); current != null; current = current.next) {
+			index.put(current.block.baseAddress, current);
+		}
+	}
+
+	/** Returns the node pool's hits (see LinkedList). */
+	public long getPoolHits() {
+		return list.getPoolHits();
+	}
+
+	/** Returns the node pool's misses (see LinkedList). */
+	public long getPoolMisses() {
+		return list.getPoolMisses();
+	}
+
+	/** Releases the pooled nodes that were not needed since the last trim (see LinkedList). */
+	public void trimPool() {
+		list.trimPool();
+	}
+
+	/**
+	 * Returns an iterator over this list, in insertion order.
+	 */
+	public ListIterator iterator() {
+		return new ListIterator(list.getFirst());
+	}
+
+	/**
+	 * A textual representation of this list, for debugging.
+	 */
+	public String toString() {
+		return list.toString();
+	}
+}
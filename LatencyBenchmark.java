@@ -0,0 +1,69 @@
+import java.util.function.IntFunction;
+
+/* This program measures the latency of single malloc and free calls, as the memory space
+ * ages and its free blocks fragment, to show that TlsfMemorySpace keeps a flat tail latency
+ * while the latency of the list-based MemorySpace grows with the length of its free list.
+ *
+ * Each allocator replays the random trace of AllocationTrace in consecutive phases. Every
+ * operation is timed on its own, and after every phase the program prints the number of
+ * free blocks, and the 50th, 99th and 99.9th percentiles and the maximum of the latencies
+ * of that phase, in nanoseconds.
+ *
+ * Usage: java LatencyBenchmark [phases] [operations per phase] [memory size]
+ *        (defaults: 8 phases, 25000 operations, 262144 words)
+ */
+public class LatencyBenchmark {
+
+    public static void main(String[] args) {
+        int phases = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 25000;
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : 1 << 18;
+        String[] names = { "MemorySpace (first-fit)", "MemorySpace (first-fit, address-ordered)", "TlsfMemorySpace" };
+        java.util.List<IntFunction<Allocator>> factories = java.util.List.of(
+            n -> new MemorySpace(n),
+            n -> new MemorySpace(n, true),
+            n -> new TlsfMemorySpace(n));
+
+        // Warms up the JIT
+        for (IntFunction<Allocator> factory : factories) {
+            run(factory.apply(size), 2, ops, size, null);
+        }
+        for (int i = 0; i < names.length; i++) {
+            System.out.println(names[i]);
+            System.out.println("  phase  free blocks  p50     p99     p999    max");
+            run(factories.get(i).apply(size), phases, ops, size, System.out);
+        }
+    }
+
+    private static void run(Allocator memory, int phases, int ops, int size, java.io.PrintStream out) {
+        AllocationTrace trace = new AllocationTrace(size, 2024);
+        long[] latencies = new long[ops];
+        for (int phase = 1; phase <= phases; phase++) {
+            for (int op = 0; op < ops; op++) {
+                long start = System.nanoTime();
+                trace.step(memory);
+                latencies[op] = System.nanoTime() - start;
+            }
+            java.util.Arrays.sort(latencies);
+            if (out != null) {
+                out.printf("  %-6d %-12s %-7d %-7d %-7d %d%n", phase, freeBlocks(memory),
+                        percentile(latencies, 0.50), percentile(latencies, 0.99),
+                        percentile(latencies, 0.999), latencies[ops - 1]);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+
+    private static String freeBlocks(Allocator memory) {
+        if (memory instanceof MemorySpace) {
+            return String.valueOf(((MemorySpace) memory).getFreeBlockCount());
+        }
+        if (memory instanceof TlsfMemorySpace) {
+            return String.valueOf(((TlsfMemorySpace) memory).getFreeBlockCount());
+        }
+        return "-";
+    }
+}
@@ -1,11 +1,20 @@
 /**
  * Represents a list of Nodes. 
  */
-public class LinkedList {
+public class LinkedList implements BlockList {
 	
 	private Node first; // pointer to the first element of this list
 	private Node last;  // pointer to the last element of this list
 	private int size;   // number of elements in this list
+
+	// The optional node pool: removed nodes, chained by their next links, which
+	// new elements reuse instead of allocating nodes
+	private Node pool;
+	private int poolSize;     // number of nodes in the pool
+	private int poolLimit;    // the most nodes that the pool keeps (0 if pooling is off)
+	private int poolLowWater; // the fewest nodes that the pool held since the last trim
+	private long poolHits;    // nodes taken from the pool
+	private long poolMisses;  // nodes allocated while pooling was on, because the pool was empty
 	
 	/**
 	 * Constructs a new list.
@@ -16,6 +25,27 @@ public class LinkedList {
 		size = 0;
 	}
 
+	/**
+	 * Constructs a new list that recycles its removed nodes through a node pool of the
+	 * given size, so that a list that churns (as a free list does under malloc and free)
+	 * stops allocating nodes once the pool has warmed up.
+	 * <p>
+	 * With pooling on, a node that is removed from this list may be reused for another
+	 * element, so callers must not hold on to removed nodes.
+	 * 
+	 * @param poolLimit
+	 *        the most removed nodes that the pool keeps (0 turns pooling off)
+	 * @throws IllegalArgumentException
+	 *         if poolLimit is negative
+	 */
+	public LinkedList(int poolLimit) {
+		this();
+		if (poolLimit < 0) {
+			throw new IllegalArgumentException("pool limit must be non-negative");
+		}
+		this.poolLimit = poolLimit;
+	}
+
 	public Node getFirst() {
 		return first;
 	}
@@ -42,13 +72,19 @@ public class LinkedList {
 			throw new IllegalArgumentException(
 					"index must be between 0 and size");
 		}
-		Node current = first; 
-    for (int i = 0; i < index; i++) {
-        current = current.next; 
-    }
-    
-    return current; 
-
+		// Walks from the nearer end of the list
+		if (index <= size / 2) {
+			Node current = first;
+			for (int i = 0; i < index; i++) {
+				current = current.next;
+			}
+			return current;
+		}
+		Node current = last;
+		for (int i = size - 1; i > index; i--) {
+			current = current.prev;
+		}
+		return current;
 	}
 	
 	/**
@@ -75,22 +111,27 @@ public class LinkedList {
 			throw new IllegalArgumentException(
 					"index must be between 0 and size");
 		}
-		Node newNode = new Node(block);
+		Node newNode = newNode(block);
 
         if (index == 0) {
             newNode.next = first;
-            first = newNode;
             if (size == 0) {
                 last = newNode;
+            } else {
+                first.prev = newNode;
             }
+            first = newNode;
         }
         else if (index == size) {
+            newNode.prev = last;
             last.next = newNode;
             last = newNode;
         }
         else {
             Node prev = getNode(index - 1);
+            newNode.prev = prev;
             newNode.next = prev.next;
+            prev.next.prev = newNode;
             prev.next = newNode;
         }
 
@@ -105,11 +146,12 @@ public class LinkedList {
 	 *        the given memory block
 	 */
 	public void addLast(MemoryBlock block) {
-		Node newNode = new Node(block);
+		Node newNode = newNode(block);
         if (size == 0) {
             first = newNode;
             last = newNode;
         } else {
+            newNode.prev = last;
             last.next = newNode;
             last = newNode;
         }
@@ -126,13 +168,14 @@ public class LinkedList {
 	 *        the given memory block
 	 */
 	public void addFirst(MemoryBlock block) {
-		Node newNode = new Node(block);
+		Node newNode = newNode(block);
 
 		if (first == null) {
 			first = newNode;
 			last = newNode;
 	} else {
 		newNode.next = first;
+		first.prev = newNode;
 		first = newNode;
 		}
 		size++;
@@ -152,11 +195,7 @@ public class LinkedList {
 			throw new IllegalArgumentException(
 					"index must be between 0 and size");
 		}		
-		Node current = first;
-		for (int i = 0; i < index; i++) {
-    		current = current.next;
-			}
-		return current.block;
+		return getNode(index).block;
 	}
 
 	/**
@@ -181,7 +220,10 @@ public class LinkedList {
 	}
 
 	/**
-	 * Removes the given node from this list.	
+	 * Removes the given node from this list, in O(1) time, using the node's links
+	 * to its predecessor and successor. If the node is not in this list (because it
+	 * was removed, or belongs to another list), nothing happens: every node knows
+	 * the list that it is linked into.
 	 * 
 	 * @param node
 	 *        the node that will be removed from this list
@@ -190,41 +232,11 @@ public class LinkedList {
 		if (node == null) {
 			throw new NullPointerException("NullPointerException!");
 		}
-		if (first == null) {
+		if (node.owner != this) {
 			return;
 		}
-	
-		
-		if (node == first) {
-			first = first.next;
-			if (node == last) {
-				last = null;
-			}	size--;
-				return;
-			}
-		// Otherwise, find the node's predecessor
-        Node current = first;
-        Node previous = null;
-
-        while (current != null && current != node) {
-            previous = current;
-            current = current.next;
-        }
-
-        // If not found, do nothing
-        if (current == null) {
-            return;
-        }
-
-        // Bypass 'node'
-        previous.next = current.next;
-
-        // If 'node' was the last, update 'last'
-        if (node == last) {
-            last = previous;
-        }
-        size--;
-    }
+		unlink(node);
+	}
 	
 
 	/**
@@ -240,8 +252,7 @@ public class LinkedList {
 			throw new IllegalArgumentException("index must be between 0 and size");
 		}
 
-		Node nodeToRemove = getNode(index);
-		remove(nodeToRemove);
+		unlink(getNode(index));
 	}
 
 	/**
@@ -254,19 +265,294 @@ public void remove(MemoryBlock block) {
 	if (block == null) {
         throw new IllegalArgumentException("index must be between 0 and size");
     }
-	int index = indexOf(block);
-    if (index == -1) {
-        throw new IllegalArgumentException("index must be between 0 and size");
-    }
-    remove(index);
+	for (Node current = first; current != null; current = current.next) {
+		if (current.block == block) {
+			unlink(current);
+			return;
+		}
+	}
+	throw new IllegalArgumentException("index must be between 0 and size");
 }
 
 
+	/**
+	 * Creates a new node that points to the given memory block, and links it right
+	 * after the given node, in O(1) time.
+	 * 
+	 * @param previous
+	 *        the node after which the block is inserted, or null to insert it first
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 */
+	void linkAfter(Node previous, MemoryBlock block) {
+		if (previous == null) {
+			addFirst(block);
+			return;
+		}
+		if (previous == last) {
+			addLast(block);
+			return;
+		}
+		Node newNode = newNode(block);
+		newNode.prev = previous;
+		newNode.next = previous.next;
+		previous.next.prev = newNode;
+		previous.next = newNode;
+		size++;
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and links it right
+	 * before the given node, in O(1) time.
+	 * 
+	 * @param next
+	 *        the node before which the block is inserted, or null to insert it last
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 */
+	void linkBefore(Node next, MemoryBlock block) {
+		linkAfter((next == null) ? last : next.prev, block);
+	}
+
+	/**
+	 * Unlinks the given node, which must be in this list, in O(1) time.
+	 * The node's links and owner are cleared, so a removed node is never mistaken for a linked one.
+	 * With pooling on, the node then goes to the pool, so its block must be read before.
+	 * 
+	 * @param node
+	 *        the node that will be removed from this list
+	 */
+	void unlink(Node node) {
+		detach(node);
+		recycle(node);
+	}
+
+	/**
+	 * Moves all the nodes of the given list, as they are, to the end of this list,
+	 * in time proportional to their number (each node is told its new list), and
+	 * leaves the given list empty. No node is created.
+	 * 
+	 * @param other
+	 *        the list whose nodes are moved, which must not be this list
+	 */
+	void appendAll(LinkedList other) {
+		if (other.size == 0) {
+			return;
+		}
+		for (Node node = other.first; node != null; node = node.next) {
+			node.owner = this;
+		}
+		if (size == 0) {
+			first = other.first;
+		} else {
+			last.next = other.first;
+			other.first.prev = last;
+		}
+		last = other.last;
+		size += other.size;
+		other.first = null;
+		other.last = null;
+		other.size = 0;
+	}
+
+	/**
+	 * Moves the first node of this list, as it is, to the end of the given list,
+	 * in O(1) time. No node is created or recycled.
+	 * 
+	 * @param other
+	 *        the list that receives the node, which must not be this list
+	 */
+	void moveFirstTo(LinkedList other) {
+		Node node = first;
+		detach(node);
+		if (other.size == 0) {
+			other.first = node;
+		} else {
+			other.last.next = node;
+			node.prev = other.last;
+		}
+		node.owner = other;
+		other.last = node;
+		other.size++;
+	}
+
+	/** Unlinks the given node, which must be in this list, and clears its links. */
+	private void detach(Node node) {
+		Node previous = node.prev;
+		Node next = node.next;
+		if (previous == null) {
+			first = next;
+		} else {
+			previous.next = next;
+		}
+		if (next == null) {
+			last = previous;
+		} else {
+			next.prev = previous;
+		}
+		node.prev = null;
+		node.next = null;
+		node.owner = null;
+		size--;
+	}
+
+	/**
+	 * Sorts this list by the base addresses of its memory blocks, in ascending order.
+	 * <p>
+	 * The sort is a bottom-up merge sort that relinks the existing nodes in place
+	 * (both the next and the prev links):
+	 * it takes O(n log n) time, allocates no new nodes or arrays, and is stable.
+	 */
+	public void sortByBaseAddress() {
+		if (size < 2) {
+			return;
+		}
+		Node head = first;
+		Node tail = null;
+		// Merges adjacent sorted runs of length runSize, doubling runSize on each pass,
+		// until a single pass performs at most one merge
+		for (int runSize = 1; ; runSize *= 2) {
+			Node p = head;
+			head = null;
+			tail = null;
+			int merges = 0;
+			while (p != null) {
+				merges++;
+				// Steps q over the run that starts at p
+				Node q = p;
+				int pSize = 0;
+				for (int i = 0; i < runSize && q != null; i++) {
+					pSize++;
+					q = q.next;
+				}
+				int qSize = runSize;
+				// Merges the run at p with the run at q
+				while (pSize > 0 || (qSize > 0 && q != null)) {
+					Node next;
+					if (pSize == 0) {
+						next = q;
+						q = q.next;
+						qSize--;
+					} else if (qSize == 0 || q == null
+							|| p.block.baseAddress <= q.block.baseAddress) {
+						next = p;
+						p = p.next;
+						pSize--;
+					} else {
+						next = q;
+						q = q.next;
+						qSize--;
+					}
+					if (tail == null) {
+						head = next;
+					} else {
+						tail.next = next;
+					}
+					next.prev = tail;
+					tail = next;
+				}
+				p = q;
+			}
+			tail.next = null;
+			if (merges <= 1) {
+				break;
+			}
+		}
+		first = head;
+		last = tail;
+	}
+
+	/**
+	 * Merges every memory block in this list with the blocks that directly follow it in
+	 * memory, in a single O(n) walk. The list must be sorted by base address
+	 * (see sortByBaseAddress). The merged blocks' nodes are unlinked from this list.
+	 */
+	public void coalesce() {
+		if (size < 2) {
+			return;
+		}
+		Node current = first;
+		while (current.next != null) {
+			MemoryBlock curr = current.block;
+			MemoryBlock nxt = current.next.block;
+			if (curr.baseAddress + curr.length == nxt.baseAddress) {
+				curr.length += nxt.length;
+				unlink(current.next);
+			} else {
+				current = current.next;
+			}
+		}
+	}
+
+	/** Returns the number of nodes in the node pool. */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/** Returns the number of new elements whose nodes were taken from the node pool. */
+	public long getPoolHits() {
+		return poolHits;
+	}
+
+	/** Returns the number of nodes that were allocated, with pooling on, because the pool was empty. */
+	public long getPoolMisses() {
+		return poolMisses;
+	}
+
+	/**
+	 * Releases the pooled nodes that were not needed since the last trim: the pool never
+	 * held fewer than its low-water mark of nodes since then, so those nodes were idle.
+	 * A list that shrinks for good gives its surplus nodes back to the garbage collector
+	 * after two trims, while a list that churns keeps the nodes it reuses.
+	 */
+	public void trimPool() {
+		for (int i = 0; i < poolLowWater; i++) {
+			Node node = pool;
+			pool = node.next;
+			node.next = null;
+		}
+		poolSize -= poolLowWater;
+		poolLowWater = poolSize;
+	}
+
+	/** Returns a node of this list that points to the given block, from the pool if possible. */
+	private Node newNode(MemoryBlock block) {
+		if (pool == null) {
+			if (poolLimit > 0) {
+				poolMisses++;
+			}
+			Node node = new Node(block);
+			node.owner = this;
+			return node;
+		}
+		Node node = pool;
+		pool = node.next;
+		node.next = null;
+		node.block = block;
+		node.owner = this;
+		poolSize--;
+		if (poolSize < poolLowWater) {
+			poolLowWater = poolSize;
+		}
+		poolHits++;
+		return node;
+	}
+
+	/** Puts the given unlinked node into the pool, unless the pool is off or full. */
+	private void recycle(Node node) {
+		if (poolSize < poolLimit) {
+			node.block = null;
+			node.next = pool;
+			pool = node;
+			poolSize++;
+		}
+	}
+
 	/**
 	 * Returns an iterator over this list, starting with the first element.
 	 */
 	public ListIterator iterator(){
-		return new ListIterator(first);
+		return new ListIterator(this);
 	}
 	
 	/**
@@ -0,0 +1,129 @@
+/* This program measures remove-heavy churn on a LinkedList: a list of n blocks is kept
+ * at a steady size, while nodes are removed at random positions and new blocks are
+ * appended at the end, as the free list of a memory space sees under malloc and free.
+ *
+ * The removed nodes are held by the caller (as MemorySpace holds a free node it found
+ * during a scan), so each removal is timed twice:
+ *
+ * (1) singly linked: the node's predecessor is found by walking the list from the
+ *     first node, which is what remove(Node) had to do before the lists kept prev links (O(n));
+ * (2) doubly linked: remove(Node) unlinks the node through its prev link (O(1)).
+ *
+ * It also measures positional churn, as code built on the index-based API sees it:
+ * getBlock(i), add(i, ...) and remove(i) at random indices, on a LinkedList (O(n) per call)
+ * and on a SkipList (O(log n) expected per call).
+ *
+ * Usage: java LinkedListBenchmark [sizes...]   (default sizes: 1000 10000 100000)
+ */
+public class LinkedListBenchmark {
+
+    private static final int OPS = 20000;  // removals (and appends) per measurement
+
+    public static void main(String[] args) {
+        int[] sizes = { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        // Warms up the JIT, so that the first measured size is not penalized
+        for (int i = 0; i < 5; i++) {
+            run(2000, false);
+        }
+        System.out.println("           remove(Node) churn                      positional churn");
+        System.out.println("blocks     singly linked (ms)  doubly linked (ms)  LinkedList (ms)     SkipList (ms)");
+        for (int n : sizes) {
+            run(n, true);
+        }
+    }
+
+    private static void run(int n, boolean print) {
+        long singly = churn(n, false);
+        long doubly = churn(n, true);
+        long linked = positional(new LinkedList(), n);
+        long skip = positional(new SkipList(), n);
+        if (print) {
+            System.out.printf("%-10d %-19.2f %-19.2f %-19.2f %.2f%n",
+                    n, singly / 1e6, doubly / 1e6, linked / 1e6, skip / 1e6);
+        }
+    }
+
+    /**
+     * Runs random positional lookups, inserts and removals on the given (empty) list, filled
+     * with n blocks first, and returns the elapsed time in nanoseconds.
+     */
+    private static long positional(BlockList list, int n) {
+        for (int i = 0; i < n; i++) {
+            list.addLast(new MemoryBlock(i, 1));
+        }
+        long seed = 42;
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int op = 0; op < OPS; op++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int i = (int) ((seed >>> 33) % list.getSize());
+            switch (op % 3) {
+                case 0:
+                    sum += list.getBlock(i).baseAddress;
+                    break;
+                case 1:
+                    list.add(i, new MemoryBlock(n + op, 1));
+                    break;
+                default:
+                    list.remove(i);
+                    break;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum < 0) {
+            throw new IllegalStateException();
+        }
+        return elapsed;
+    }
+
+    /** Runs the churn on a list of n blocks, and returns the elapsed time in nanoseconds. */
+    private static long churn(int n, boolean doublyLinked) {
+        LinkedList list = new LinkedList();
+        // The nodes of the list, so that a node at a random position is found in O(1) time
+        Node[] nodes = new Node[n];
+        for (int i = 0; i < n; i++) {
+            list.addLast(new MemoryBlock(i, 1));
+            nodes[i] = list.getLast();
+        }
+        long seed = 42;
+        int next = n;
+        long start = System.nanoTime();
+        for (int op = 0; op < OPS; op++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int i = (int) ((seed >>> 33) % n);
+            if (doublyLinked) {
+                list.remove(nodes[i]);
+            } else {
+                removeByWalk(list, nodes[i]);
+            }
+            list.addLast(new MemoryBlock(next++, 1));
+            nodes[i] = list.getLast();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (list.getSize() != n) {
+            throw new IllegalStateException("lost nodes: " + list.getSize());
+        }
+        return elapsed;
+    }
+
+    /**
+     * Removes the given node after walking to its predecessor, as a singly linked list must.
+     * The walk is the cost being measured; the unlink itself is the same in both cases.
+     */
+    private static void removeByWalk(LinkedList list, Node node) {
+        Node previous = null;
+        for (Node current = list.getFirst(); current != node; current = current.next) {
+            previous = current;
+        }
+        if (previous != node.prev) {
+            throw new IllegalStateException("walk did not find the predecessor");
+        }
+        list.unlink(node);
+    }
+}
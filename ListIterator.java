@@ -4,11 +4,23 @@ public class ListIterator {
     // current position in the list (cursor)
     public Node current;
 
+    // the list being iterated, or null if this iterator was built from a bare node
+    private BlockList list;
+
+    // the node returned by the last call to next, or null if it was removed
+    private Node lastReturned;
+
     /** Constructs a list iterator, starting at the given node */
     public ListIterator(Node node) {
         current = node;
     }
 
+    /** Constructs a list iterator over the given list, which supports remove() */
+    public ListIterator(BlockList list) {
+        this(list.getFirst());
+        this.list = list;
+    }
+
     /** Checks if this iterator has more nodes to process */
     public boolean hasNext() {
         return (current != null);
@@ -16,8 +28,28 @@ public class ListIterator {
 
     /** Returns the current element in the list, and advances the cursor */
     public MemoryBlock next() {
-        Node currentNode = current;
+        lastReturned = current;
         current = current.next;
-        return currentNode.block;
+        return lastReturned.block;
+    }
+
+    /**
+     * Removes from the list the node whose block was returned by the last call to next.
+     * The removal takes the time of the list's remove(Node): O(1) in a LinkedList.
+     *
+     * @throws UnsupportedOperationException
+     *         if this iterator was not constructed from a list
+     * @throws IllegalStateException
+     *         if next was not called, or remove was already called after the last call to next
+     */
+    public void remove() {
+        if (list == null) {
+            throw new UnsupportedOperationException("iterator is not bound to a list");
+        }
+        if (lastReturned == null) {
+            throw new IllegalStateException("next must be called before remove");
+        }
+        list.remove(lastReturned);
+        lastReturned = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/**
+ * Represents a list of free memory blocks, sorted by base address, that several threads can
+ * search and change at once without locks. This is Harris's lock-free linked list (as presented
+ * by Herlihy and Shavit): the link to the next node and a "removed" mark share one
+ * AtomicMarkableReference, and every change is a compare-and-set on it.
+ * <p>
+ * A node, and the block it holds, never change. A block is taken out of the list in two steps:
+ * first its node is marked, with a compare-and-set on its next link, which makes it logically
+ * removed (and which only one thread can do, so marking a node is how a thread claims its block);
+ * then its predecessor is linked past it. The second step may be done by any thread that walks
+ * past the marked node. Splitting a block (allocate) and merging two blocks (coalesce) claim the
+ * nodes, and link a new node holding the remaining or the merged block in their place.
+ * <p>
+ * While a thread holds claimed blocks, before it links their replacement, other threads do not
+ * see them. So every claim is counted as pending, from just before its compare-and-set until its
+ * replacement is linked, and every change that links a block counts as a new version of the
+ * list. An allocate that finds no block large enough starts over if the version changed during
+ * its walk, since then another thread made progress, which keeps the list lock-free. It also
+ * starts over, yielding first, if a claim is pending, but at most PENDING_RETRIES times in a
+ * row, so that a thread that is descheduled while it holds a claim never blocks the others. The
+ * guarantee is thus weaker than "fails only if the space is too small": allocate fails if the
+ * list had no block large enough, or if the blocks that would have been enough stayed claimed
+ * by another thread through PENDING_RETRIES walks.
+ */
+public class LockFreeFreeList {
+
+	/** A node of the list: an immutable block, and a markable link to the next node. */
+	private static class FreeNode {
+		final int baseAddress;
+		final int length;
+		final AtomicMarkableReference<FreeNode> next;
+
+		FreeNode(int baseAddress, int length, FreeNode next) {
+			this.baseAddress = baseAddress;
+			this.length = length;
+			this.next = new AtomicMarkableReference<>(next, false);
+		}
+	}
+
+	// A sentinel node that precedes all the blocks, and is never marked
+	private final FreeNode head = new FreeNode(-1, 0, null);
+
+	// The number of claimed blocks whose replacement is not linked yet
+	private final AtomicInteger pending = new AtomicInteger();
+
+	// Incremented whenever a block is linked into the list
+	private final AtomicInteger version = new AtomicInteger();
+
+	/** The most walks in a row that allocate starts over only because a claim is pending. */
+	public static final int PENDING_RETRIES = 64;
+
+	/** A pair of consecutive nodes: pred is not marked, and curr is null or the node after pred. */
+	private static class Window {
+		final FreeNode pred;
+		final FreeNode curr;
+
+		Window(FreeNode pred, FreeNode curr) {
+			this.pred = pred;
+			this.curr = curr;
+		}
+	}
+
+	/**
+	 * Returns the window in which a block with the given base address belongs: pred's base
+	 * address is smaller than it, and curr's (if curr is not null) is at least as large.
+	 * Unlinks the marked nodes that it walks past, and starts over if that fails because
+	 * another thread changed pred.
+	 */
+	private Window find(int baseAddress) {
+		boolean[] marked = { false };
+		retry:
+		while (true) {
+			FreeNode pred = head;
+			FreeNode curr = pred.next.getReference();
+			while (curr != null) {
+				FreeNode succ = curr.next.get(marked);
+				while (marked[0]) {
+					if (!pred.next.compareAndSet(curr, succ, false, false)) {
+						continue retry;
+					}
+					curr = succ;
+					if (curr == null) {
+						return new Window(pred, null);
+					}
+					succ = curr.next.get(marked);
+				}
+				if (curr.baseAddress >= baseAddress) {
+					return new Window(pred, curr);
+				}
+				pred = curr;
+				curr = succ;
+			}
+			return new Window(pred, null);
+		}
+	}
+
+	/**
+	 * Inserts a free block with the given base address and length at its place in the list.
+	 * The block must not overlap any block in the list.
+	 */
+	public void insert(int baseAddress, int length) {
+		FreeNode node = new FreeNode(baseAddress, length, null);
+		while (true) {
+			Window w = find(baseAddress);
+			node.next.set(w.curr, false);
+			if (w.pred.next.compareAndSet(w.curr, node, false, false)) {
+				version.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Links the given new node past the claimed node curr, or inserts a copy of it at its place
+	 * if pred changed. Returns true in the first case, and false in the second.
+	 */
+	private boolean replace(FreeNode pred, FreeNode curr, FreeNode node) {
+		if (pred.next.compareAndSet(curr, node, false, false)) {
+			version.incrementAndGet();
+			return true;
+		}
+		insert(node.baseAddress, node.length);
+		return false;
+	}
+
+	/**
+	 * Allocates a block of the given length from the first free block (by base address) that is
+	 * large enough: claims it, and, if it is longer than needed, links a node that holds the rest
+	 * of it in its place. If no block is large enough, walks the list again if another thread
+	 * changed it during the walk, or, at most PENDING_RETRIES times in a row, if another thread
+	 * holds claimed blocks.
+	 *
+	 * @param length
+	 *        the length (in words) of the block to allocate, which must be positive
+	 * @return the base address of the allocated block, or -1 if no free block was large enough,
+	 *         or if the blocks that were large enough stayed claimed by other threads
+	 */
+	public int allocate(int length) {
+		boolean[] marked = { false };
+		int pendingRetries = 0;
+		retry:
+		while (true) {
+			int seen = version.get();
+			FreeNode pred = head;
+			FreeNode curr = pred.next.getReference();
+			while (curr != null) {
+				FreeNode succ = curr.next.get(marked);
+				if (!marked[0] && curr.length >= length) {
+					pending.incrementAndGet();
+					if (!curr.next.compareAndSet(succ, succ, false, true)) {
+						pending.decrementAndGet();
+						continue retry;  // another thread claimed or changed it
+					}
+					if (curr.length == length) {
+						pred.next.compareAndSet(curr, succ, false, false);  // if it fails, find unlinks it
+					} else {
+						replace(pred, curr, new FreeNode(curr.baseAddress + length, curr.length - length, succ));
+					}
+					pending.decrementAndGet();
+					return curr.baseAddress;
+				}
+				if (!marked[0]) {
+					pred = curr;
+				}
+				curr = succ;
+			}
+			if (version.get() != seen) {
+				pendingRetries = 0;
+				continue;
+			}
+			if (pending.get() > 0 && pendingRetries < PENDING_RETRIES) {
+				pendingRetries++;
+				Thread.yield();  // lets the thread that holds the claim link its replacement
+				continue;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Merges every block in the list with the blocks that directly follow it in memory, in a
+	 * single walk. A pair of adjacent blocks is merged by claiming both nodes, and linking a node
+	 * that holds the merged block in their place. If another thread claims the second block first,
+	 * the first one is put back as it was, and the walk goes on.
+	 */
+	public void coalesce() {
+		boolean[] marked = { false };
+		FreeNode pred = head;
+		FreeNode curr = pred.next.getReference();
+		while (curr != null) {
+			FreeNode next = curr.next.get(marked);
+			if (marked[0]) {
+				// Claimed by another thread: finds the block that took its place
+				Window w = find(curr.baseAddress);
+				pred = w.pred;
+				curr = w.curr;
+				continue;
+			}
+			if (next == null) {
+				return;
+			}
+			if (curr.baseAddress + curr.length != next.baseAddress) {
+				pred = curr;
+				curr = next;
+				continue;
+			}
+			pending.incrementAndGet();
+			if (!curr.next.compareAndSet(next, next, false, true)) {
+				pending.decrementAndGet();
+				continue;  // changed since it was read: reads it again
+			}
+			FreeNode succ = next.next.get(marked);
+			if (marked[0] || !next.next.compareAndSet(succ, succ, false, true)) {
+				// Another thread claimed the second block: puts the first one back
+				replace(pred, curr, new FreeNode(curr.baseAddress, curr.length, next));
+				pending.decrementAndGet();
+				curr = pred.next.getReference();
+				continue;
+			}
+			FreeNode merged = new FreeNode(curr.baseAddress, curr.length + next.length, succ);
+			boolean linked = replace(pred, curr, merged);
+			pending.decrementAndGet();
+			if (linked) {
+				curr = merged;  // it may merge with the block after it, too
+			} else {
+				Window w = find(curr.baseAddress);
+				pred = w.pred;
+				curr = w.curr;
+			}
+		}
+	}
+
+	/** Returns the number of blocks in the list (which may change while it is counted). */
+	public int getSize() {
+		int size = 0;
+		boolean[] marked = { false };
+		for (FreeNode curr = head.next.getReference(); curr != null; ) {
+			FreeNode succ = curr.next.get(marked);
+			if (!marked[0]) {
+				size++;
+			}
+			curr = succ;
+		}
+		return size;
+	}
+
+	/**
+	 * A textual representation of the blocks in the list, for debugging, each formatted as
+	 * "(baseAddress , length) ", as in the first line of MemorySpace.toString. The list may
+	 * change while it is printed.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		boolean[] marked = { false };
+		for (FreeNode curr = head.next.getReference(); curr != null; ) {
+			FreeNode succ = curr.next.get(marked);
+			if (!marked[0]) {
+				sb.append("(").append(curr.baseAddress).append(" , ").append(curr.length).append(") ");
+			}
+			curr = succ;
+		}
+		return sb.toString();
+	}
+}
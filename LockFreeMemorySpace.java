@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a managed memory space whose free list several threads can search and change at
+ * once without locks. The free blocks are kept in a LockFreeFreeList, sorted by base address,
+ * from which malloc allocates first-fit, and into which free inserts the freed block at its
+ * place. defrag merges the adjacent free blocks while other threads keep allocating and freeing.
+ * <p>
+ * The allocated blocks are not kept in a list: SlotIndexes map the base address of every
+ * allocated block to its length, so the bookkeeping grows with the number of blocks, rather than
+ * with the size of the memory space, and an entry costs no object. A SlotIndex is not thread-safe,
+ * so the addresses are spread by their low bits over LENGTH_STRIPES of them, each guarded by a
+ * lock of its own, which is held only to put or remove one entry. free takes the block out of
+ * its SlotIndex under that lock, so of two threads that free the same block at once, only one
+ * frees it.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace,
+ * except that toString lists the allocated blocks by base address, rather than in allocation
+ * order, and that malloc may also fail if the blocks it needs stay claimed by another thread,
+ * which is splitting or merging them, for longer than LockFreeFreeList.PENDING_RETRIES walks of
+ * the free list (see LockFreeFreeList).
+ */
+public class LockFreeMemorySpace implements Allocator {
+
+    // The free blocks, sorted by base address
+    private LockFreeFreeList freeList = new LockFreeFreeList();
+
+    // The number of SlotIndexes that hold the lengths; a power of two
+    private static final int LENGTH_STRIPES = 64;
+
+    // lengths[address & (LENGTH_STRIPES - 1)] maps the base address of every allocated block
+    // to its length, and guards itself
+    private SlotIndex[] lengths = new SlotIndex[LENGTH_STRIPES];
+
+
+    // The number of allocated blocks
+    private LongAdder allocatedCount = new LongAdder();
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public LockFreeMemorySpace(int maxSize) {
+        for (int i = 0; i < LENGTH_STRIPES; i++) {
+            lengths[i] = new SlotIndex();
+        }
+        if (maxSize > 0) {
+            freeList.insert(0, maxSize);
+        }
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), from the free block with the
+     * lowest base address that is large enough. Returns the base address of the allocated
+     * block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int address = freeList.allocate(length);
+        if (address >= 0) {
+            SlotIndex stripe = lengths[address & (LENGTH_STRIPES - 1)];
+            synchronized (stripe) {
+                stripe.put(address, length);
+            }
+            allocatedCount.increment();
+        }
+        return address;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, and inserts it at
+     * its place in the free list.
+     *
+     * @param address
+     *            the starting address of the block to free
+     * @throws IllegalArgumentException
+     *         if no block is allocated
+     */
+    public void free(int address) {
+        if (allocatedCount.sum() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        if (address < 0) {
+            return;
+        }
+        SlotIndex stripe = lengths[address & (LENGTH_STRIPES - 1)];
+        int length;
+        synchronized (stripe) {
+            length = stripe.remove(address);
+        }
+        if (length < 0) {
+            return;
+        }
+        allocatedCount.decrement();
+        freeList.insert(address, length);
+    }
+
+    /**
+     * Performs defragmentation of this memory space: merges the adjacent free blocks, in a single
+     * walk over the free list (which is always sorted by base address).
+     */
+    public boolean defrag() {
+        freeList.coalesce();
+        return true;
+    }
+
+    /** Returns the number of blocks in the free list. */
+    public int getFreeBlockCount() {
+        return freeList.getSize();
+    }
+
+    /**
+     * A textual representation of the free blocks and the allocated blocks of this memory space,
+     * for debugging purposes. The entries of the SlotIndexes are gathered, one stripe at a time,
+     * and sorted by address.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(freeList.toString());
+        sb.append("\n");
+        int[] addresses = new int[0];
+        int[] sizes = new int[0];
+        int count = 0;
+        for (SlotIndex stripe : lengths) {
+            synchronized (stripe) {
+                if (count + stripe.getSize() > addresses.length) {
+                    int capacity = Math.max(2 * addresses.length, count + stripe.getSize());
+                    addresses = java.util.Arrays.copyOf(addresses, capacity);
+                    sizes = java.util.Arrays.copyOf(sizes, capacity);
+                }
+                count = stripe.copyTo(addresses, sizes, count);
+            }
+        }
+        // Sorts the blocks by address, each packed into a long with its address in the high half
+        long[] blocks = new long[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = ((long) addresses[i] << 32) | sizes[i];
+        }
+        java.util.Arrays.sort(blocks);
+        for (long block : blocks) {
+            sb.append("(").append((int) (block >>> 32)).append(" , ").append((int) block).append(") ");
+        }
+        return sb.toString();
+    }
+}
@@ -3,14 +3,68 @@
  * memory blocks, and a list free memory blocks. The methods "malloc" and "free" are 
  * used, respectively, for creating new blocks and recycling existing blocks.
  */
-public class MemorySpace {
+public class MemorySpace implements Allocator {
 
-    // A list of the memory blocks that are presently allocated
-	private LinkedList allocatedList;
+    // A list of the memory blocks that are presently allocated, indexed by base address
+	private IndexedList allocatedList;
 
 	// A list of memory blocks that are presently free
 	private LinkedList freeList;
 
+	// If true, the free list is kept sorted by base address, and freed blocks are
+	// coalesced with their neighbours immediately
+	private boolean addressOrdered;
+
+	// The placement policy that malloc uses
+	private AllocationPolicy policy;
+
+	// The address range of this memory space: baseAddress to baseAddress + maxSize - 1
+	private int baseAddress;
+	private int maxSize;
+
+	// The state of the incremental defragmentation (see defragStep): the phase of the cycle
+	// in progress, the next free node to process, and the free nodes indexed by base address
+	private static final int IDLE = 0;
+	private static final int INDEXING = 1;
+	private static final int MERGING = 2;
+	private int defragPhase = IDLE;
+	private Node defragCursor;
+	private AddressIndex defragIndex;
+	private AddressIndex coalesceEnds;  // see coalesceUntil
+	private long defragCycleCount;  // the number of cycles that ran to their end
+
+	// True if malloc or free changed the free list since the last complete defragmentation began
+	private boolean freeListChanged = true;
+
+	// Incremented by every change to the free list, so that a caller can tell whether the free
+	// list changed between two looks at it (see getFreeListVersion)
+	private long freeListVersion;
+
+	// If true, a malloc that fails coalesces the free list and tries again (see setDefragOnFailure)
+	private boolean defragOnFailure;
+
+	// True if free appended a block to the free list since the last complete coalesce, so that
+	// the free list may hold adjacent free blocks
+	private boolean uncoalesced;
+
+	// The total length of the free blocks, and the number of coalesces that failed mallocs caused
+	private int freeSize;
+	private long failureDefragCount;
+
+	// Next-fit's roving pointer: the free node where the next scan starts, and its block.
+	// Checked for validity before every use.
+	private Node rover;
+	private MemoryBlock roverBlock;
+
+	// The most removed nodes that each list keeps for reuse, so that steady malloc/free
+	// churn allocates no nodes (see LinkedList)
+	private static final int NODE_POOL_LIMIT = 1024;
+
+	// Blocks that merges made redundant, kept for reuse by allocations that split a free block
+	private MemoryBlock[] spareBlocks = new MemoryBlock[NODE_POOL_LIMIT];
+	private int spareCount;
+	private int spareLowWater;  // the fewest spare blocks since the last trim
+
 	/**
 	 * Constructs a new managed memory space of a given maximal size.
 	 * 
@@ -18,9 +72,80 @@ public class MemorySpace {
 	 *            the size of the memory space to be managed
 	 */
     public MemorySpace(int maxSize) {
-        allocatedList = new LinkedList();
-        freeList = new LinkedList();
-        freeList.addLast(new MemoryBlock(0, maxSize));
+        this(maxSize, AllocationPolicy.FIRST_FIT, false);
+    }
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size.
+	 * 
+	 * In address-ordered mode, free inserts the freed block at its place in the free list
+	 * (which stays sorted by base address), and merges it with the free blocks that are
+	 * adjacent to it. The free list is then always fully coalesced, so defrag has nothing
+	 * to do, and malloc scans a shorter list.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param addressOrdered
+	 *            true for address-ordered mode, false to append freed blocks to the free list
+	 */
+    public MemorySpace(int maxSize, boolean addressOrdered) {
+        this(maxSize, AllocationPolicy.FIRST_FIT, addressOrdered);
+    }
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, which uses
+	 * the given placement policy.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy used by malloc
+	 */
+    public MemorySpace(int maxSize, AllocationPolicy policy) {
+        this(maxSize, policy, false);
+    }
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, which uses
+	 * the given placement policy, in address-ordered mode or not.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy used by malloc
+	 * @param addressOrdered
+	 *            true for address-ordered mode, false to append freed blocks to the free list
+	 */
+    public MemorySpace(int maxSize, AllocationPolicy policy, boolean addressOrdered) {
+        this(0, maxSize, policy, addressOrdered);
+    }
+
+	/**
+	 * Constructs a new managed memory space that manages the addresses baseAddress to
+	 * baseAddress + maxSize - 1, rather than 0 to maxSize - 1, so that several memory spaces
+	 * can share one address range (see ConcurrentMemorySpace).
+	 * 
+	 * @param baseAddress
+	 *            the lowest address of the memory space
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy used by malloc
+	 * @param addressOrdered
+	 *            true for address-ordered mode, false to append freed blocks to the free list
+	 */
+    public MemorySpace(int baseAddress, int maxSize, AllocationPolicy policy, boolean addressOrdered) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        this.policy = policy;
+        this.addressOrdered = addressOrdered;
+        this.baseAddress = baseAddress;
+        this.maxSize = maxSize;
+        allocatedList = new IndexedList(NODE_POOL_LIMIT);
+        freeList = new LinkedList(NODE_POOL_LIMIT);
+        freeList.addLast(new MemoryBlock(baseAddress, maxSize));
+        freeSize = maxSize;
     }
 
    /**
@@ -28,7 +153,8 @@ public class MemorySpace {
 	 * base address of the allocated block, or -1 if unable to allocate.
 	 * 
 	 * This implementation scans the freeList, looking for the first free memory block 
-	 * whose length equals at least the given length. If such a block is found, the method 
+	 * whose length equals at least the given length (other placement policies choose the
+	 * block differently, see AllocationPolicy). If such a block is found, the method 
 	 * performs the following operations:
 	 * 
 	 * (1) A new memory block is constructed. The base address of the new block is set to
@@ -49,6 +175,12 @@ public class MemorySpace {
 	 * If the length of the found block is exactly the same as the requested length, 
 	 * then the found block is removed from the freeList and appended to the allocatedList.
 	 * 
+	 * If no free block is large enough, and defrag-on-failure is set (see setDefragOnFailure),
+	 * adjacent free blocks are merged until a block of the requested length forms, and the scan
+	 * is repeated, but only if this can help: if free has appended a block to the free list
+	 * since the last complete coalesce, and if the free blocks add up to at least the requested
+	 * length. Otherwise, -1 is returned at once.
+	 * 
 	 * @param length
 	 *        the length (in words) of the memory block that has to be allocated
 	 * @return the base address of the allocated block, or -1 if unable to allocate
@@ -57,27 +189,163 @@ public class MemorySpace {
         if (length <= 0) {
             return -1;
         }
-        for (int i = 0; i < freeList.getSize(); i++) {
-            MemoryBlock freeBlk = freeList.getBlock(i);
-            if (freeBlk.length >= length) {
-                int allocatedBase = freeBlk.baseAddress;
-                if (freeBlk.length == length) {
-                    freeList.remove(i); 
-                } else {
-                    freeBlk.baseAddress += length;
-                    freeBlk.length -= length;
-                }
-                allocatedList.addLast(new MemoryBlock(allocatedBase, length));
-                return allocatedBase;
+        int address = place(length);
+        if (address < 0 && defragOnFailure && uncoalesced && length <= freeSize) {
+            failureDefragCount++;
+            if (coalesceUntil(length)) {
+                address = place(length);
+            }
+        }
+        return address;
+    }
+
+    /** Allocates a block of the given length as the placement policy chooses, or returns -1. */
+    private int place(int length) {
+        switch (policy) {
+            case NEXT_FIT:
+                return nextFit(length);
+            case BEST_FIT:
+                return bestFit(length);
+            case WORST_FIT:
+                return worstFit(length);
+            default:
+                return firstFit(length);
+        }
+    }
+
+    /** Allocates from the first free block that is large enough, or returns -1. */
+    private int firstFit(int length) {
+        for (Node current = freeList.getFirst(); current != null; current = current.next) {
+            if (current.block.length >= length) {
+                return allocate(current, length);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Allocates from the first free block that is large enough, starting the scan at the
+     * rover and wrapping around to the beginning of the free list, or returns -1.
+     */
+    private int nextFit(int length) {
+        Node start = freeList.getFirst();
+        // The rover is usable only if it is still linked into the free list, and still holds
+        // the same block (unlinked nodes have null links, and recycled nodes a new block)
+        if (rover != null && rover.block == roverBlock && inFreeList(rover)) {
+            start = rover;
+        }
+        for (Node current = start; current != null; current = current.next) {
+            if (current.block.length >= length) {
+                return allocateAndMoveRover(current, length);
+            }
+        }
+        for (Node current = freeList.getFirst(); current != start; current = current.next) {
+            if (current.block.length >= length) {
+                return allocateAndMoveRover(current, length);
             }
         }
         return -1;
     }
 
+    /** Checks if the given node, which held a free block at some point, is still linked into the free list. */
+    private boolean inFreeList(Node node) {
+        return node.prev != null ? node.prev.next == node : freeList.getFirst() == node;
+    }
+
+    private int allocateAndMoveRover(Node node, int length) {
+        rover = (node.block.length == length) ? node.next : node;
+        roverBlock = (rover == null) ? null : rover.block;
+        return allocate(node, length);
+    }
+
+    /** Allocates from the smallest free block that is large enough, or returns -1. */
+    private int bestFit(int length) {
+        Node best = null;
+        for (Node current = freeList.getFirst(); current != null; current = current.next) {
+            int len = current.block.length;
+            if (len >= length && (best == null || len < best.block.length)) {
+                best = current;
+                if (len == length) {
+                    break; // nothing fits better than an exact fit
+                }
+            }
+        }
+        return (best == null) ? -1 : allocate(best, length);
+    }
+
+    /** Allocates from the largest free block, if it is large enough, or returns -1. */
+    private int worstFit(int length) {
+        Node worst = null;
+        for (Node current = freeList.getFirst(); current != null; current = current.next) {
+            if (worst == null || current.block.length > worst.block.length) {
+                worst = current;
+            }
+        }
+        if (worst == null || worst.block.length < length) {
+            return -1;
+        }
+        return allocate(worst, length);
+    }
+
+    /**
+     * Allocates a block of the given length from the beginning of the given free node,
+     * and appends it to the allocated list. If the free node fits exactly, it is unlinked,
+     * in O(1) time, and its block moves to the allocated list as it is; otherwise the
+     * allocated block is a spare block, if there is one. With the lists' node pools,
+     * the steady-state malloc/free cycle thus allocates no objects.
+     * 
+     * @param node
+     *        the free node to allocate from, whose length is at least the given length
+     * @return the base address of the allocated block
+     */
+    private int allocate(Node node, int length) {
+        MemoryBlock freeBlk = node.block;
+        int allocatedBase = freeBlk.baseAddress;
+        freeListChanged = true;
+        freeListVersion++;
+        freeSize -= length;
+        if (freeBlk.length == length) {
+            if (node == defragCursor) {
+                defragCursor = node.next;
+            }
+            freeList.unlink(node);
+            allocatedList.add(freeBlk);
+        } else {
+            freeBlk.baseAddress += length;
+            freeBlk.length -= length;
+            allocatedList.add(newBlock(allocatedBase, length));
+        }
+        return allocatedBase;
+    }
+
+    /** Returns a block with the given base address and length, reusing a spare block if possible. */
+    private MemoryBlock newBlock(int baseAddress, int length) {
+        if (spareCount == 0) {
+            return new MemoryBlock(baseAddress, length);
+        }
+        MemoryBlock blk = spareBlocks[--spareCount];
+        spareBlocks[spareCount] = null;
+        if (spareCount < spareLowWater) {
+            spareLowWater = spareCount;
+        }
+        blk.baseAddress = baseAddress;
+        blk.length = length;
+        return blk;
+    }
+
+    /** Keeps the given block, which no list refers to any more, for reuse (if there is room). */
+    private void recycleBlock(MemoryBlock blk) {
+        if (spareCount < spareBlocks.length) {
+            spareBlocks[spareCount++] = blk;
+        }
+    }
+
    /**
 	 * Frees the memory block whose base address equals the given address.
 	 * This implementation deletes the block whose base address equals the given 
-	 * address from the allocatedList, and adds it at the end of the free list. 
+	 * address from the allocatedList, and adds it at the end of the free list
+	 * (in address-ordered mode, inserts it in order and coalesces it with its neighbours).
+	 * The block is located through the allocatedList's address index, so no list scan is needed.
 	 * 
 	 * @param baseAddress
 	 *            the starting address of the block to freeList
@@ -86,62 +354,435 @@ public class MemorySpace {
         if (allocatedList.getSize() == 0) {
             throw new IllegalArgumentException("index must be between 0 and size");
         }
-        for (int i = 0; i < allocatedList.getSize(); i++) {
-            MemoryBlock blk = allocatedList.getBlock(i);
-            if (blk.baseAddress == address) {
-                allocatedList.remove(i);
-                freeList.addLast(blk);
-                return;
+        MemoryBlock blk = allocatedList.remove(address);
+        if (blk == null) {
+            return;
+        }
+        freeSize += blk.length;
+        freeListVersion++;
+        if (addressOrdered) {
+            insertOrdered(blk);
+        } else {
+            freeList.addLast(blk);
+            freeListChanged = true;
+            uncoalesced = true;
+        }
+    }
+
+    /**
+     * Inserts the given block into the address-ordered free list, merging it with the
+     * free block that ends where it begins, and with the free block that begins where it ends.
+     */
+    private void insertOrdered(MemoryBlock blk) {
+        Node current = freeList.getFirst();
+        while (current != null && current.block.baseAddress < blk.baseAddress) {
+            current = current.next;
+        }
+        Node previous = (current == null) ? freeList.getLast() : current.prev;
+        boolean mergesPrevious = previous != null
+                && previous.block.baseAddress + previous.block.length == blk.baseAddress;
+        boolean mergesNext = current != null
+                && blk.baseAddress + blk.length == current.block.baseAddress;
+        if (mergesPrevious) {
+            previous.block.length += blk.length;
+            recycleBlock(blk);
+            if (mergesNext) {
+                MemoryBlock nextBlk = current.block;
+                previous.block.length += nextBlk.length;
+                freeList.unlink(current);
+                recycleBlock(nextBlk);
             }
+        } else if (mergesNext) {
+            current.block.baseAddress = blk.baseAddress;
+            current.block.length += blk.length;
+            recycleBlock(blk);
+        } else {
+            freeList.linkAfter(previous, blk);
         }
     }
 
     /**
 	 * Performs defragmantation of this memory space.
 	 * Normally, called by malloc, when it fails to find a memory block of the requested size.
-	 * In this implementation Malloc does not call defrag.
+	 * In this implementation malloc calls defrag only if defrag-on-failure is set (see setDefragOnFailure).
+	 * 
+	 * The free list is merge-sorted in place by base address, and then adjacent blocks
+	 * are coalesced in a single walk over the list. This takes O(n log n) time, and
+	 * allocates no arrays and no new nodes. The blocks that are merged away become spare blocks.
+	 * In address-ordered mode the free list is always coalesced, and this method does nothing.
 	 */
     public boolean defrag() {
-        if (freeList.getSize() < 2) {
+        defragPhase = IDLE;
+        defragCursor = null;
+        freeListChanged = false;
+        uncoalesced = false;
+        if (addressOrdered || freeList.getSize() < 2) {
             return true;
         }
-
-        MemoryBlock[] arr = new MemoryBlock[freeList.getSize()];
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = freeList.getBlock(i);
+        freeList.sortByBaseAddress();
+        freeListVersion++;
+        // LinkedList.coalesce, keeping the merged blocks for reuse
+        Node current = freeList.getFirst();
+        while (current.next != null) {
+            MemoryBlock curr = current.block;
+            MemoryBlock nxt = current.next.block;
+            if (curr.baseAddress + curr.length == nxt.baseAddress) {
+                curr.length += nxt.length;
+                freeList.unlink(current.next);
+                recycleBlock(nxt);
+            } else {
+                current = current.next;
+            }
         }
+        return true;
+    }
+
 
-        for (int i = 0; i < arr.length - 1; i++) {
-            for (int j = 0; j < arr.length - 1 - i; j++) {
-                if (arr[j].baseAddress > arr[j + 1].baseAddress) {
-                    // swap
-                    MemoryBlock temp = arr[j];
-                    arr[j] = arr[j + 1];
-                    arr[j + 1] = temp;
+    /**
+	 * Performs a bounded amount of incremental defragmentation, processing at most maxNodes free
+	 * nodes, or as many as it can in maxNanos nanoseconds, whichever comes first, and resumes
+	 * where the previous call stopped. Unlike defrag, whose time grows with the length of the
+	 * free list, this can be called between mallocs and frees with a bounded pause.
+	 * 
+	 * The free list is coalesced in cycles, in two walks from a saved cursor, without sorting it:
+	 * the first walk indexes every free node by the base address of its block, and the second
+	 * merges every free block with the free block that begins where it ends, found in the index.
+	 * A cycle thus takes O(n) time in all, and leaves the order of the free list as it was.
+	 * Blocks that malloc splits, and blocks that free appends, during a cycle may be missed by
+	 * it, so a change to the free list during a cycle causes another one. Once malloc and free
+	 * stop changing the free list, a cycle therefore runs to its end without a change, and
+	 * the free list is fully coalesced.
+	 * In address-ordered mode the free list is always coalesced, and this method does nothing.
+	 * 
+	 * @param maxNodes
+	 *        the most free nodes to process (visiting or merging a node counts as one), at least 1
+	 * @param maxNanos
+	 *        the time limit, in nanoseconds, checked every 64 nodes
+	 * @return true if the free list is fully coalesced, and false if more calls are needed
+	 * @throws IllegalArgumentException
+	 *         if maxNodes is not positive
+	 */
+    public boolean defragStep(int maxNodes, long maxNanos) {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("maxNodes must be positive");
+        }
+        if (addressOrdered) {
+            return true;
+        }
+        if (defragPhase == IDLE) {
+            if (!freeListChanged) {
+                return true;
+            }
+            freeListChanged = false;
+            if (defragIndex == null) {
+                defragIndex = new AddressIndex();
+            } else {
+                defragIndex.clear();
+            }
+            defragPhase = INDEXING;
+            defragCursor = freeList.getFirst();
+        }
+        long deadline = System.nanoTime() + maxNanos;
+        int nextCheck = 64;  // merges count several nodes at once, so the work may skip over a multiple of 64
+        for (int work = 0; work < maxNodes; ) {
+            if (work >= nextCheck) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
                 }
+                nextCheck = work + 64;
             }
+            Node node = defragCursor;
+            if (node == null) {
+                if (defragPhase == INDEXING) {
+                    defragPhase = MERGING;
+                    defragCursor = freeList.getFirst();
+                    continue;
+                }
+                defragPhase = IDLE;
+                defragIndex.clear();
+                defragCycleCount++;
+                if (!freeListChanged) {
+                    uncoalesced = false;
+                }
+                return !freeListChanged;
+            }
+            MemoryBlock blk = node.block;
+            if (defragPhase == INDEXING) {
+                defragIndex.put(blk.baseAddress, node);
+            } else {
+                // The index may hold nodes that were unlinked since, or whose block was split:
+                // a node is merged only if it is in the free list, and its block begins here
+                int end = blk.baseAddress + blk.length;
+                Node next = defragIndex.get(end);
+                while (next != null && next != node && next.block != null
+                        && next.block.baseAddress == end && inFreeList(next)) {
+                    if (work == maxNodes) {
+                        return false;  // the next call resumes merging into this block
+                    }
+                    MemoryBlock nextBlk = next.block;
+                    defragIndex.remove(end);
+                    blk.length += nextBlk.length;
+                    freeList.unlink(next);
+                    freeListVersion++;
+                    recycleBlock(nextBlk);
+                    work++;
+                    end = blk.baseAddress + blk.length;
+                    next = defragIndex.get(end);
+                }
+            }
+            defragCursor = node.next;
+            work++;
         }
+        return false;
+    }
 
-        freeList = new LinkedList();
-        for (MemoryBlock mb : arr) {
-            freeList.addLast(mb);
-        }
+    /**
+     * Returns a number that changes whenever the free list changes (by malloc, free, defrag,
+     * defragStep or compact), so that a caller can skip recomputing a statistic of the free
+     * list, such as getFragmentation, if the free list has not changed since it last looked.
+     */
+    public long getFreeListVersion() {
+        return freeListVersion;
+    }
 
-        int i = 0;
-        while (i < freeList.getSize() - 1) {
-            MemoryBlock curr = freeList.getBlock(i);
-            MemoryBlock nxt = freeList.getBlock(i + 1);
-            if (curr.baseAddress + curr.length == nxt.baseAddress) {
-                curr.length += nxt.length;
-                freeList.remove(i + 1);
+    /**
+     * Returns the number of cycles of incremental defragmentation that ran to their end (see
+     * defragStep), whether or not malloc and free changed the free list during them. A caller
+     * that coalesces in the background may stop after a cycle, even while defragStep still
+     * returns false because the memory space is in use.
+     */
+    public long getDefragCycleCount() {
+        return defragCycleCount;
+    }
+
+    /**
+     * Performs incremental defragmentation of at most maxNodes free nodes, without a time limit
+     * (see defragStep(int, long)).
+     * 
+     * @return true if the free list is fully coalesced, and false if more calls are needed
+     */
+    public boolean defragStep(int maxNodes) {
+        return defragStep(maxNodes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Merges adjacent free blocks, in a single walk over the free list, until a block of at least
+     * the given length forms, for a malloc that failed (see setDefragOnFailure). Every visited
+     * free node is merged with the visited free blocks that end where it begins and begin where
+     * it ends, which are found by address in two indexes, so the visited blocks are always fully
+     * coalesced among themselves, and the walk can stop as soon as the merged block is long
+     * enough. This takes O(k) expected time for the k nodes visited (besides clearing the two
+     * indexes), without the sort of defrag, and leaves the order of the free list as it was
+     * (a merged node keeps its place).
+     * 
+     * @return true if a free block of at least the given length formed
+     */
+    private boolean coalesceUntil(int length) {
+        // The merges may unlink the nodes that an incremental cycle holds, so it starts again
+        defragPhase = IDLE;
+        defragCursor = null;
+        freeListChanged = true;
+        freeListVersion++;
+        if (defragIndex == null) {
+            defragIndex = new AddressIndex();
+            coalesceEnds = new AddressIndex();
+        } else {
+            defragIndex.clear();
+            if (coalesceEnds == null) {
+                coalesceEnds = new AddressIndex();
             } else {
-                i++;
+                coalesceEnds.clear();
+            }
+        }
+        AddressIndex starts = defragIndex;
+        AddressIndex ends = coalesceEnds;
+        boolean found = false;
+        Node node = freeList.getFirst();
+        while (node != null && !found) {
+            Node following = node.next;
+            MemoryBlock blk = node.block;
+            Node previous = ends.remove(blk.baseAddress);
+            if (previous != null) {
+                // The visited block that ends here absorbs this one, and keeps its place
+                previous.block.length += blk.length;
+                freeList.unlink(node);
+                recycleBlock(blk);
+                node = previous;
+                blk = previous.block;
+            } else {
+                starts.put(blk.baseAddress, node);
+            }
+            int end = blk.baseAddress + blk.length;
+            Node next = starts.remove(end);
+            if (next != null) {
+                MemoryBlock nextBlk = next.block;
+                ends.remove(nextBlk.baseAddress + nextBlk.length);
+                blk.length += nextBlk.length;
+                freeList.unlink(next);
+                recycleBlock(nextBlk);
             }
+            ends.put(blk.baseAddress + blk.length, node);
+            found = blk.length >= length;
+            node = following;
         }
+        if (node == null) {
+            uncoalesced = false;  // every node was visited
+        }
+        return found;
+    }
 
-        return true;
+    /**
+	 * Sets whether a malloc that finds no free block that is large enough coalesces the free
+	 * list and tries again (see malloc). This is off by default, as in C, where the caller
+	 * decides when to defragment. In address-ordered mode the free list is always coalesced,
+	 * and the setting has no effect.
+	 * 
+	 * @param defragOnFailure
+	 *        true to coalesce and retry when malloc fails, false to return -1 at once
+	 */
+    public void setDefragOnFailure(boolean defragOnFailure) {
+        this.defragOnFailure = defragOnFailure;
+    }
+
+    /** Returns true if a malloc that fails coalesces the free list and tries again. */
+    public boolean isDefragOnFailure() {
+        return defragOnFailure;
+    }
+
+    /** Returns the number of times that a failed malloc coalesced the free list (see setDefragOnFailure). */
+    public long getFailureDefragCount() {
+        return failureDefragCount;
+    }
+
+    /**
+	 * Performs a sliding compaction of this memory space: moves every allocated block down, in
+	 * address order, so that the allocated blocks are contiguous from the lowest address of the
+	 * memory space on, and leaves all the free space in a single free block after them. Unlike
+	 * defrag, this also reclaims the holes between allocated blocks, but it changes the base
+	 * addresses of the moved blocks, so it is only safe when nothing else holds those addresses
+	 * (see HandleMemorySpace).
+	 * 
+	 * The allocated blocks keep their MemoryBlock objects, whose base addresses are updated, and
+	 * their order in the allocated list. If an arena is given, the words of every moved block are
+	 * moved with it, in a single bulk copy per block. This takes O(n log n) time for n allocated blocks.
+	 * 
+	 * @param arena
+	 *        the arena that holds the words of this memory space, or null if there is none
+	 */
+    public void compact(Arena arena) {
+        MemoryBlock[] blocks = new MemoryBlock[allocatedList.getSize()];
+        ListIterator itr = allocatedList.iterator();
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = itr.next();
+        }
+        java.util.Arrays.sort(blocks, (a, b) -> Integer.compare(a.baseAddress, b.baseAddress));
+        // Moving the blocks in address order never overwrites a block that has not moved yet
+        int next = baseAddress;
+        for (MemoryBlock blk : blocks) {
+            if (blk.baseAddress != next) {
+                if (arena != null) {
+                    arena.copy(blk.baseAddress, next, blk.length);
+                }
+                blk.baseAddress = next;
+            }
+            next += blk.length;
+        }
+        allocatedList.reindex();
+        while (freeList.getSize() > 0) {
+            Node node = freeList.getFirst();
+            MemoryBlock blk = node.block;
+            freeList.unlink(node);
+            recycleBlock(blk);
+        }
+        int end = baseAddress + maxSize;
+        if (next < end) {
+            freeList.addLast(newBlock(next, end - next));
+        }
+        freeListVersion++;
+        rover = null;
+        roverBlock = null;
+        defragPhase = IDLE;
+        defragCursor = null;
+        freeListChanged = false;
+        uncoalesced = false;
     }
 
+    /**
+     * Releases the nodes of the free and allocated lists' node pools, and the spare blocks,
+     * that were idle since the last call (see LinkedList.trimPool). Meant to be called at
+     * long intervals: nodes and blocks that are released are allocated again when needed.
+     */
+    public void trimPools() {
+        freeList.trimPool();
+        allocatedList.trimPool();
+        int idle = spareLowWater;
+        java.util.Arrays.fill(spareBlocks, spareCount - idle, spareCount, null);
+        spareCount -= idle;
+        spareLowWater = spareCount;
+    }
+
+    /** Returns the number of nodes that the free and allocated lists took from their node pools. */
+    public long getNodePoolHits() {
+        return freeList.getPoolHits() + allocatedList.getPoolHits();
+    }
+
+    /** Returns the number of nodes that the free and allocated lists allocated, their pools being empty. */
+    public long getNodePoolMisses() {
+        return freeList.getPoolMisses() + allocatedList.getPoolMisses();
+    }
+
+    /**
+     * Returns the length of the allocated block whose base address equals the given address,
+     * or -1 if no allocated block begins at that address.
+     */
+    public int getAllocatedLength(int address) {
+        MemoryBlock blk = allocatedList.get(address);
+        return (blk == null) ? -1 : blk.length;
+    }
+
+    /**
+     * Returns the allocated block whose base address equals the given address, or null. The block
+     * is this memory space's own object, which stays the same while the block is allocated
+     * (compact updates its base address), for HandleMemorySpace's handle table.
+     */
+    MemoryBlock getAllocatedBlock(int address) {
+        return allocatedList.get(address);
+    }
+
+    /** Returns the number of blocks in the allocated list. */
+    public int getAllocatedBlockCount() {
+        return allocatedList.getSize();
+    }
+
+    /** Returns the number of blocks in the free list. */
+    public int getFreeBlockCount() {
+        return freeList.getSize();
+    }
+
+    /** Returns the total length (in words) of the free blocks. */
+    public int getFreeSize() {
+        return freeSize;
+    }
+
+    /** Returns the length (in words) of the largest free block, or 0 if there are none. */
+    public int getLargestFreeBlock() {
+        int largest = 0;
+        for (Node current = freeList.getFirst(); current != null; current = current.next) {
+            largest = Math.max(largest, current.block.length);
+        }
+        return largest;
+    }
+
+    /**
+	 * Returns the external fragmentation of this memory space: 1 - (largest free block /
+	 * total free size). The value is 0 when all the free space is one block, and approaches
+	 * 1 as the free space is split into many small blocks. Returns 0 if there is no free space.
+	 * Note that adjacent free blocks that were not coalesced by defrag count as separate blocks.
+	 */
+    public double getFragmentation() {
+        int total = getFreeSize();
+        return (total == 0) ? 0 : 1 - (double) getLargestFreeBlock() / total;
+    }
 
     /**
 	 * A textual representation of the free list and the allocated list of this memory space, 
@@ -154,8 +795,9 @@ public class MemorySpace {
         if (freeList.getSize() == 0) {
             sb.append("\n");
         } else {
-            for (int i = 0; i < freeList.getSize(); i++) {
-                MemoryBlock f = freeList.getBlock(i);
+            ListIterator itr = freeList.iterator();
+            while (itr.hasNext()) {
+                MemoryBlock f = itr.next();
                 sb.append("(").append(f.baseAddress).append(" , ").append(f.length).append(") ");
             }
             sb.append("\n");
@@ -163,8 +805,9 @@ public class MemorySpace {
 
         // allocated blocks line
         if (allocatedList.getSize() > 0) {
-            for (int i = 0; i < allocatedList.getSize(); i++) {
-                MemoryBlock a = allocatedList.getBlock(i);
+            ListIterator itr = allocatedList.iterator();
+            while (itr.hasNext()) {
+                MemoryBlock a = itr.next();
                 sb.append("(").append(a.baseAddress).append(" , ").append(a.length).append(") ");
             }
         }
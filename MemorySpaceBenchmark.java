@@ -0,0 +1,114 @@
+/* This program measures how the cost of a single malloc and a single free
+ * grows with the number of fragments in the memory space.
+ *
+ * For every size n, the memory space is filled with n one-word blocks, and every
+ * other block is freed, leaving n/2 holes in the free list and n/2 blocks in the
+ * allocated list. Then:
+ *
+ * (1) malloc(2) is called. No hole is large enough, so the whole free list is scanned.
+ * (2) The last allocated block is freed, which is the worst case for a scan of the allocated list.
+ *
+ * Each operation is timed twice: once with an index-based scan (getBlock(i) in a loop,
+ * which walks from the first node on every step, O(n^2)), and once with the
+ * MemorySpace implementation: malloc walks the free list once with an iterator (O(n)),
+ * and free finds the block through an address index (O(1)).
+ *
+ * Usage: java MemorySpaceBenchmark [sizes...]   (default sizes: 1000 10000 100000)
+ */
+public class MemorySpaceBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        // Warms up the JIT, so that the first measured size is not penalized
+        for (int i = 0; i < 5; i++) {
+            run(2000, false);
+        }
+        System.out.println("blocks     indexed malloc   MemorySpace malloc indexed free    MemorySpace free");
+        for (int n : sizes) {
+            run(n, true);
+        }
+    }
+
+    private static void run(int n, boolean print) {
+        // The index-based scans, measured on lists that have the same contents
+        LinkedList holes = new LinkedList();
+        LinkedList used = new LinkedList();
+        for (int addr = 0; addr < n; addr++) {
+            if (addr % 2 == 0) {
+                holes.addLast(new MemoryBlock(addr, 1));
+            } else {
+                used.addLast(new MemoryBlock(addr, 1));
+            }
+        }
+        long start = System.nanoTime();
+        int found = indexedFirstFit(holes, 2);
+        long indexedMalloc = System.nanoTime() - start;
+        start = System.nanoTime();
+        found += indexedFind(used, lastOddAddress(n));
+        long indexedFree = System.nanoTime() - start;
+
+        // The same operations, on the memory space itself
+        MemorySpace memory = fragmented(n);
+        start = System.nanoTime();
+        found += memory.malloc(2);
+        long spaceMalloc = System.nanoTime() - start;
+        start = System.nanoTime();
+        memory.free(lastOddAddress(n));
+        long spaceFree = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%-10d %-16s %-18s %-15s %s%n", n,
+                    millis(indexedMalloc), millis(spaceMalloc),
+                    millis(indexedFree), millis(spaceFree));
+        } else if (found == Integer.MIN_VALUE) {
+            // Keeps the results alive, so the JIT cannot drop the scans
+            System.out.println(found);
+        }
+    }
+
+    /** Builds a memory space of n words, with a one-word hole at every even address. */
+    private static MemorySpace fragmented(int n) {
+        MemorySpace memory = new MemorySpace(n);
+        for (int i = 0; i < n; i++) {
+            memory.malloc(1);
+        }
+        for (int addr = 0; addr < n; addr += 2) {
+            memory.free(addr);
+        }
+        return memory;
+    }
+
+    private static int lastOddAddress(int n) {
+        return (n % 2 == 0) ? n - 1 : n - 2;
+    }
+
+    /** First-fit, as implemented before: getBlock(i) walks from the first node each time. */
+    private static int indexedFirstFit(LinkedList list, int length) {
+        for (int i = 0; i < list.getSize(); i++) {
+            if (list.getBlock(i).length >= length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Lookup by base address, as free was implemented before. */
+    private static int indexedFind(LinkedList list, int address) {
+        for (int i = 0; i < list.getSize(); i++) {
+            if (list.getBlock(i).baseAddress == address) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+}
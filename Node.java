@@ -1,10 +1,12 @@
 /**
- * Represents a node in a linked list. Each node points to a MemoryBlock object. 
+ * Represents a node in a doubly linked list. Each node points to a MemoryBlock object. 
  */
 public class Node {
 
 	MemoryBlock block;  // The memory block that this node points at
 	Node next = null;   // The next node in the list
+	Node prev = null;   // The previous node in the list
+	BlockList owner = null;  // The list that this node is linked into, or null if it is in none
 
 	/**
 	 * Constructs a new node, pointing to the given memory block.
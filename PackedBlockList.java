@@ -0,0 +1,238 @@
+/**
+ * Represents a list of memory blocks, stored as packed primitives: every block is a single
+ * long, whose high 32 bits hold the base address and whose low 32 bits hold the length.
+ * The whole list is one long array, so a block costs 8 bytes, instead of a MemoryBlock object
+ * and a Node (about 56 bytes), and the garbage collector has a single object to trace.
+ * <p>
+ * The list is accessed by position. Where a MemoryBlock is needed, getBlock hands out a view:
+ * a new MemoryBlock with the block's base address and length, which is a copy, so changes
+ * to it do not affect the list (use set instead). add and addLast also accept MemoryBlocks.
+ * Insertion and removal at a position shift the blocks after it, with System.arraycopy.
+ * <p>
+ * Base addresses are never negative, so sorting the packed longs sorts the blocks by base address.
+ */
+public class PackedBlockList {
+
+	private long[] entries;  // the packed blocks, in list order
+	private int size;        // number of blocks in this list
+
+	/**
+	 * Constructs a new, empty list.
+	 */
+	public PackedBlockList() {
+		entries = new long[16];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/** Packs the given base address and length into a long. */
+	static long pack(int baseAddress, int length) {
+		return ((long) baseAddress << 32) | (length & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gets the base address of the block located at the given index in this list.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public int getBaseAddress(int index) {
+		checkIndex(index);
+		return (int) (entries[index] >>> 32);
+	}
+
+	/**
+	 * Gets the length of the block located at the given index in this list.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public int getLength(int index) {
+		checkIndex(index);
+		return (int) entries[index];
+	}
+
+	/**
+	 * Returns a view of the block located at the given index in this list: a new MemoryBlock
+	 * with the block's base address and length. Changing the view does not change the list.
+	 *
+	 * @param index
+	 *        the index of the retrieved memory block
+	 * @return a copy of the memory block at the given index
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public MemoryBlock getBlock(int index) {
+		checkIndex(index);
+		long e = entries[index];
+		return new MemoryBlock((int) (e >>> 32), (int) e);
+	}
+
+	/**
+	 * Replaces the block located at the given index in this list.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public void set(int index, int baseAddress, int length) {
+		checkIndex(index);
+		entries[index] = pack(baseAddress, length);
+	}
+
+	/**
+	 * Inserts a block with the given base address and length at the given index in this list.
+	 *
+	 * @param index
+	 *        the index before which the block should be inserted
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than the list's size
+	 */
+	public void add(int index, int baseAddress, int length) {
+		if (index < 0 || index > size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		if (size == entries.length) {
+			entries = java.util.Arrays.copyOf(entries, size * 2);
+		}
+		System.arraycopy(entries, index, entries, index + 1, size - index);
+		entries[index] = pack(baseAddress, length);
+		size++;
+	}
+
+	/**
+	 * Inserts the given block's base address and length at the given index in this list.
+	 * The list keeps a copy: the block itself is not referenced.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than the list's size
+	 */
+	public void add(int index, MemoryBlock block) {
+		add(index, block.baseAddress, block.length);
+	}
+
+	/** Adds a block with the given base address and length to the end of this list. */
+	public void addLast(int baseAddress, int length) {
+		if (size == entries.length) {
+			entries = java.util.Arrays.copyOf(entries, size * 2);
+		}
+		entries[size++] = pack(baseAddress, length);
+	}
+
+	/** Adds the given block's base address and length to the end of this list. */
+	public void addLast(MemoryBlock block) {
+		addLast(block.baseAddress, block.length);
+	}
+
+	/** Gets the packed long of the block located at the given index (see pack), without checking the index. */
+	long getPacked(int index) {
+		return entries[index];
+	}
+
+	/** Adds a block, given as a packed long (see pack), to the end of this list. */
+	void addPacked(long entry) {
+		if (size == entries.length) {
+			entries = java.util.Arrays.copyOf(entries, size * 2);
+		}
+		entries[size++] = entry;
+	}
+
+	/**
+	 * Gets the index of the first block whose base address equals the given address.
+	 *
+	 * @return the index of the block, or -1 if no block in this list has that base address
+	 */
+	public int indexOf(int baseAddress) {
+		for (int i = 0; i < size; i++) {
+			if ((int) (entries[i] >>> 32) == baseAddress) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes from this list the block which is located at the given index.
+	 *
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public void remove(int index) {
+		checkIndex(index);
+		System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+		size--;
+	}
+
+	/**
+	 * Removes every block whose length is 0, keeping the order of the other blocks,
+	 * in a single O(n) pass. Lets a caller mark blocks as removed, and drop them in bulk.
+	 *
+	 * @return the number of removed blocks
+	 */
+	public int removeEmpty() {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if ((int) entries[i] != 0) {
+				entries[kept++] = entries[i];
+			}
+		}
+		int removed = size - kept;
+		size = kept;
+		return removed;
+	}
+
+	/**
+	 * Sorts this list by the base addresses of its blocks (and blocks with equal base
+	 * addresses by length). The packed longs are sorted directly, in O(n log n) time.
+	 */
+	public void sortByBaseAddress() {
+		java.util.Arrays.sort(entries, 0, size);
+	}
+
+	/**
+	 * Merges every block in this list with the blocks that directly follow it in memory,
+	 * in a single O(n) pass. The list must be sorted by base address (see sortByBaseAddress).
+	 */
+	public void coalesce() {
+		if (size < 2) {
+			return;
+		}
+		int kept = 0;
+		long current = entries[0];
+		for (int i = 1; i < size; i++) {
+			long next = entries[i];
+			int end = (int) (current >>> 32) + (int) current;
+			if (end == (int) (next >>> 32)) {
+				current = pack((int) (current >>> 32), (int) current + (int) next);
+			} else {
+				entries[kept++] = current;
+				current = next;
+			}
+		}
+		entries[kept++] = current;
+		size = kept;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+	}
+
+	/**
+	 * A textual representation of this list, for debugging, in the format of LinkedList.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (int i = 0; i < size; i++) {
+			sb.append("(").append((int) (entries[i] >>> 32)).append(" , ").append((int) entries[i]).append(")");
+			if (i + 1 < size) {
+				sb.append(", ");
+			}
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+}
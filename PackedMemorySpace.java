@@ -0,0 +1,188 @@
+/**
+ * Represents a managed memory space that keeps its blocks as packed primitives, in
+ * PackedBlockLists, instead of MemoryBlock objects linked by Nodes. It behaves exactly like
+ * MemorySpace in its default mode (first-fit, freed blocks appended to the free list, defrag
+ * sorts and coalesces), but a fragment costs about 8 bytes in the free list, and about 24
+ * bytes when allocated (8 in the list, and 16 in the address index at its load factor), so a
+ * heap of millions of fragments takes tens of megabytes, and adds almost nothing for the
+ * garbage collector to trace.
+ * <p>
+ * The allocated blocks are kept in allocation order, and a SlotIndex maps the base address
+ * of every allocated block to its position. free marks the block's entry as removed (a length
+ * of 0) instead of shifting the list; the removed entries are dropped in bulk, and the index
+ * rebuilt, when they make up half of the list, so free takes O(1) amortized time.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace.
+ */
+public class PackedMemorySpace implements Allocator {
+
+    // The free blocks, in the order of MemorySpace's free list
+    private PackedBlockList freeList;
+
+    // The allocated blocks in allocation order, including entries marked as removed
+    private PackedBlockList allocatedList;
+
+    // Maps the base address of every allocated block to its position in allocatedList
+    private SlotIndex allocatedSlots;
+
+    // The number of entries of allocatedList that are marked as removed
+    private int removedCount;
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public PackedMemorySpace(int maxSize) {
+        freeList = new PackedBlockList();
+        allocatedList = new PackedBlockList();
+        allocatedSlots = new SlotIndex();
+        freeList.addLast(0, maxSize);
+    }
+
+    /**
+     * Constructs a managed memory space in the state that save wrote to the given buffer,
+     * and advances the buffer's position past it.
+     */
+    PackedMemorySpace(java.nio.ByteBuffer in) {
+        freeList = new PackedBlockList();
+        allocatedList = new PackedBlockList();
+        allocatedSlots = new SlotIndex();
+        int freeCount = in.getInt();
+        int allocatedCount = in.getInt();
+        for (int i = 0; i < freeCount; i++) {
+            freeList.addPacked(in.getLong());
+        }
+        for (int i = 0; i < allocatedCount; i++) {
+            long entry = in.getLong();
+            allocatedSlots.put((int) (entry >>> 32), i);
+            allocatedList.addPacked(entry);
+        }
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), from the first free block
+     * that is large enough. Returns the base address of the allocated block, or -1 if unable
+     * to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int n = freeList.getSize();
+        for (int i = 0; i < n; i++) {
+            int freeLength = freeList.getLength(i);
+            if (freeLength >= length) {
+                int allocatedBase = freeList.getBaseAddress(i);
+                if (freeLength == length) {
+                    freeList.remove(i);
+                } else {
+                    freeList.set(i, allocatedBase + length, freeLength - length);
+                }
+                allocatedSlots.put(allocatedBase, allocatedList.getSize());
+                allocatedList.addLast(allocatedBase, length);
+                return allocatedBase;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, and adds it
+     * at the end of the free list.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocatedSlots.getSize() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        int slot = allocatedSlots.remove(address);
+        if (slot < 0) {
+            return;
+        }
+        freeList.addLast(address, allocatedList.getLength(slot));
+        allocatedList.set(slot, address, 0);
+        removedCount++;
+        if (removedCount * 2 > allocatedList.getSize()) {
+            compact();
+        }
+    }
+
+    /** Drops the entries marked as removed, and maps the remaining blocks to their new positions. */
+    private void compact() {
+        allocatedList.removeEmpty();
+        removedCount = 0;
+        for (int i = 0; i < allocatedList.getSize(); i++) {
+            allocatedSlots.put(allocatedList.getBaseAddress(i), i);
+        }
+    }
+
+    /**
+     * Performs defragmentation of this memory space: the free list is sorted by base address,
+     * and adjacent blocks are coalesced in a single pass.
+     */
+    public boolean defrag() {
+        if (freeList.getSize() < 2) {
+            return true;
+        }
+        freeList.sortByBaseAddress();
+        freeList.coalesce();
+        return true;
+    }
+
+    /** Returns the number of bytes that save writes. */
+    int savedSize() {
+        return 8 + 8 * (freeList.getSize() + allocatedList.getSize() - removedCount);
+    }
+
+    /**
+     * Writes the state of this memory space to the given buffer: the number of free blocks and
+     * of allocated blocks (as two ints), followed by the free list and by the allocated list
+     * (without the entries marked as removed), as packed longs.
+     */
+    void save(java.nio.ByteBuffer out) {
+        if (removedCount > 0) {
+            compact();
+        }
+        out.putInt(freeList.getSize());
+        out.putInt(allocatedList.getSize());
+        for (int i = 0; i < freeList.getSize(); i++) {
+            out.putLong(freeList.getPacked(i));
+        }
+        for (int i = 0; i < allocatedList.getSize(); i++) {
+            out.putLong(allocatedList.getPacked(i));
+        }
+    }
+
+    /** Returns the number of blocks in the free list. */
+    public int getFreeBlockCount() {
+        return freeList.getSize();
+    }
+
+    /**
+     * A textual representation of the free list and the allocated list of this memory space,
+     * for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < freeList.getSize(); i++) {
+            sb.append("(").append(freeList.getBaseAddress(i)).append(" , ").append(freeList.getLength(i)).append(") ");
+        }
+        sb.append("\n");
+        for (int i = 0; i < allocatedList.getSize(); i++) {
+            int length = allocatedList.getLength(i);
+            if (length > 0) {
+                sb.append("(").append(allocatedList.getBaseAddress(i)).append(" , ").append(length).append(") ");
+            }
+        }
+        return sb.toString();
+    }
+}
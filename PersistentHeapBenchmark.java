@@ -0,0 +1,77 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* This program measures how long it takes to reopen a PersistentMemorySpace, whose data region
+ * is 1 GB (2^27 words) by default.
+ *
+ * The memory space is created in a temporary directory, and a random sequence of mallocs and
+ * frees (with a write to every allocated block) leaves it with many allocated and free blocks.
+ * Then it is reopened twice:
+ *
+ * (1) after close, which made a checkpoint: reopening loads the snapshot;
+ * (2) after more operations, without close, as after a crash: reopening loads the snapshot,
+ *     and replays the log (up to PersistentMemorySpace.LOG_CAPACITY records).
+ *
+ * Both then write a new snapshot, as every reopening starts a new epoch. Neither reads the data
+ * region, so the time depends on the number of blocks, and not on the size of the memory space.
+ *
+ * Usage: java PersistentHeapBenchmark [words] [operations]
+ *        (defaults: 134217728 words, 200000 operations)
+ */
+public class PersistentHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int words = (args.length > 0) ? Integer.parseInt(args[0]) : 1 << 27;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+        Path dir = Files.createTempDirectory("heap");
+        Path path = dir.resolve("heap");
+        try {
+            PersistentMemorySpace memory = new PersistentMemorySpace(path, words);
+            java.util.Random random = new java.util.Random(42);
+            int[] live = new int[ops];
+            int liveCount = churn(memory, random, live, 0, ops);
+            memory.close();
+
+            long start = System.nanoTime();
+            memory = new PersistentMemorySpace(path, words);
+            long afterClose = System.nanoTime() - start;
+            String state = memory.toString();
+            int blocks = state.length() - state.replace("(", "").length();
+
+            churn(memory, random, live, liveCount, PersistentMemorySpace.LOG_CAPACITY - 1);
+            start = System.nanoTime();
+            memory = new PersistentMemorySpace(path, words);
+            long afterCrash = System.nanoTime() - start;
+            memory.close();
+
+            System.out.printf("data region: %d MB, blocks: %d%n", (long) words * Arena.WORD_BYTES >> 20, blocks);
+            System.out.printf("reopen after close:               %.1f ms%n", afterClose / 1e6);
+            System.out.printf("reopen after a crash (full log):  %.1f ms%n", afterCrash / 1e6);
+        } finally {
+            try (java.util.stream.Stream<Path> paths = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) paths::iterator) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /** Runs the given number of random mallocs and frees; returns the new number of live blocks. */
+    private static int churn(PersistentMemorySpace memory, java.util.Random random, int[] live, int liveCount, int ops) {
+        for (int op = 0; op < ops; op++) {
+            if (liveCount > 0 && random.nextInt(3) == 0) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                live[i] = live[--liveCount];
+            } else {
+                int address = memory.malloc(1 + random.nextInt(1024));
+                if (address >= 0) {
+                    memory.getArena().putLong(address, op);
+                    live[liveCount++] = address;
+                }
+            }
+        }
+        return liveCount;
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Represents a managed memory space that lives in a memory-mapped file, so that it survives
+ * the process: the allocated blocks, the free blocks and the words of the memory space are all
+ * found again when the file is reopened. The blocks are managed by a PackedMemorySpace (first-fit,
+ * freed blocks appended to the free list, as in MemorySpace's default mode), and the words are
+ * held by an Arena that maps the data region of the file.
+ * <p>
+ * The block lists are made persistent by a snapshot and an intent log, both in mapped files:
+ * <ul>
+ * <li>The main file starts with a header, whose epoch names the current snapshot, followed by
+ * the log, and by the data region.</li>
+ * <li>A snapshot holds the free list and the allocated list, as packed longs, and a checksum.
+ * There are two snapshot files, beside the main file, and snapshot e is in file e % 2.</li>
+ * <li>Every malloc that succeeds, every free that frees a block, and every defrag appends
+ * a record to the log, which holds the operation, and a seal: the epoch and the record's
+ * position in the log. The seal is written last, after a release fence, so a record whose seal
+ * is not in place was not completed. The allocator is deterministic, so the operation alone
+ * is enough to redo it.</li>
+ * </ul>
+ * Opening a file loads the current snapshot, replays the sealed records of the current epoch,
+ * in order, and makes a checkpoint. When the log is full (and on close), a checkpoint writes the
+ * whole state as the next snapshot, into the other snapshot file, forces it to disk, and only
+ * then moves the header to the next epoch, with a single 8-byte write; the records of the old
+ * epoch no longer have a valid seal. A crash at any point, in an operation or in a checkpoint,
+ * thus leaves the last snapshot and a prefix of its log, which together are a state that the
+ * memory space was in. Reopening costs a snapshot load and at most LOG_CAPACITY replayed
+ * operations, whatever the size of the data region, which is mapped but not read. If opening
+ * fails, the file is closed again.
+ * <p>
+ * The log guards the block lists, not the words: like a C program, a program that needs its data
+ * to be crash-consistent must order its own writes. Records reach the file as soon as they are
+ * written, so they survive a crash of the process; sync forces them to the disk, so that they
+ * also survive a crash of the machine. The file holds words in the machine's byte order.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace.
+ */
+public class PersistentMemorySpace implements Allocator, AutoCloseable {
+
+    /** The number of records that the log holds; a full log causes a checkpoint. */
+    public static final int LOG_CAPACITY = 16384;
+
+    private static final long MAGIC = 0x4D656D5370616365L;  // "MemSpace"
+    static final int HEADER_SIZE = 4096;
+    static final int RECORD_SIZE = 16;                       // the operation, and the seal
+    private static final long DATA_OFFSET = HEADER_SIZE + (long) LOG_CAPACITY * RECORD_SIZE;
+
+    // Offsets in the header
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SIZE_OFFSET = 8;
+    private static final int EPOCH_OFFSET = 16;
+
+    // Operations in the log
+    private static final int MALLOC = 1;
+    private static final int FREE = 2;
+    private static final int DEFRAG = 3;
+
+    private Path path;
+    private FileChannel channel;
+    private MappedByteBuffer header;   // the header and the log
+    private MappedByteBuffer data;     // the data region
+    private Arena arena;               // the words of the data region
+    private PackedMemorySpace memory;  // the block lists
+    private long epoch;                // the current snapshot, whose log is being written
+    private int logSize;               // the number of records in the current epoch's log
+
+    /**
+     * Opens the persistent memory space in the given file, or creates it (with all its words
+     * free) if the file does not exist.
+     *
+     * @param path
+     *            the main file; the snapshots are kept beside it, in path + ".0" and path + ".1"
+     * @param maxSize
+     *            the size of the memory space, which must be the size it was created with
+     * @throws IllegalArgumentException
+     *         if maxSize is negative or greater than Arena.MAX_WORDS, or if the file exists,
+     *         but does not hold a memory space of that size
+     * @throws IOException
+     *         if the files cannot be read or written, or if the current snapshot is corrupt
+     */
+    public PersistentMemorySpace(Path path, int maxSize) throws IOException {
+        if (maxSize < 0 || maxSize > Arena.MAX_WORDS) {
+            throw new IllegalArgumentException("maxSize must be between 0 and " + Arena.MAX_WORDS);
+        }
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            open(maxSize);
+        } catch (Throwable t) {
+            // Closes the channel, and drops the mappings, which are unmapped once collected
+            header = null;
+            data = null;
+            arena = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                t.addSuppressed(e);
+            }
+            throw t;
+        }
+    }
+
+    /** Maps the open file, and creates or loads the memory space in it. */
+    private void open(int maxSize) throws IOException {
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET);
+        data = channel.map(FileChannel.MapMode.READ_WRITE, DATA_OFFSET, (long) maxSize * Arena.WORD_BYTES);
+        arena = new Arena(data);
+        // The magic number is written last, so a file whose creation was interrupted is created again
+        boolean created = header.getLong(MAGIC_OFFSET) == 0;
+        if (created) {
+            header.putLong(SIZE_OFFSET, maxSize);
+            header.putLong(EPOCH_OFFSET, 0);
+            header.putLong(MAGIC_OFFSET, MAGIC);
+            header.force();
+        } else if (header.getLong(MAGIC_OFFSET) != MAGIC || header.getLong(SIZE_OFFSET) != maxSize) {
+            throw new IllegalArgumentException("the file does not hold a memory space of size " + maxSize);
+        }
+        epoch = header.getLong(EPOCH_OFFSET);
+        memory = (epoch == 0) ? new PackedMemorySpace(maxSize) : loadSnapshot();
+        replay();
+        // Starts a new epoch, so that records of the previous one that may have reached the
+        // disk beyond the replayed prefix can never be mistaken for new records. This is needed
+        // even if the prefix is empty: after a crash of the machine, a later record may have
+        // reached the disk although the first did not. Only a new file has no records at all.
+        if (!created) {
+            checkpoint();
+        }
+    }
+
+    /** Returns the file that holds the snapshot of the given epoch. */
+    private Path snapshotPath(long e) {
+        return path.resolveSibling(path.getFileName() + "." + (e % 2));
+    }
+
+    /** Loads the snapshot of the current epoch. */
+    private PackedMemorySpace loadSnapshot() throws IOException {
+        try (FileChannel snapshot = FileChannel.open(snapshotPath(epoch), StandardOpenOption.READ)) {
+            MappedByteBuffer in = snapshot.map(FileChannel.MapMode.READ_ONLY, 0, snapshot.size());
+            long savedEpoch = in.getLong(0);
+            int length = in.getInt(8);
+            if (savedEpoch != epoch || length < 0 || 16 + (long) length > in.capacity()) {
+                throw new IOException("corrupt snapshot " + snapshotPath(epoch));
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(in.slice(12, length));
+            if ((int) crc.getValue() != in.getInt(12 + length)) {
+                throw new IOException("corrupt snapshot " + snapshotPath(epoch));
+            }
+            return new PackedMemorySpace(in.slice(12, length));
+        }
+    }
+
+    /** Redoes the sealed records of the current epoch, in order. */
+    private void replay() {
+        logSize = 0;
+        while (logSize < LOG_CAPACITY) {
+            int offset = HEADER_SIZE + logSize * RECORD_SIZE;
+            if (header.getLong(offset + 8) != seal(logSize)) {
+                break;
+            }
+            long record = header.getLong(offset);
+            int argument = (int) record;
+            switch ((int) (record >>> 32)) {
+                case MALLOC:
+                    memory.malloc(argument);
+                    break;
+                case FREE:
+                    memory.free(argument);
+                    break;
+                default:
+                    memory.defrag();
+            }
+            logSize++;
+        }
+    }
+
+    /** Returns the seal of the record at the given position of the current epoch's log. */
+    private long seal(int position) {
+        return (epoch << 32) | (position + 1);
+    }
+
+    /**
+     * Makes a checkpoint if the log is full. Called before an operation changes the block lists,
+     * so that the operation is in the log of the new epoch, and not also in its snapshot.
+     */
+    private void reserveRecord() {
+        if (logSize == LOG_CAPACITY) {
+            checkpoint();
+        }
+    }
+
+    /** Appends a record of the given operation to the log, which reserveRecord made room in. */
+    private void log(int operation, int argument) {
+        int offset = HEADER_SIZE + logSize * RECORD_SIZE;
+        header.putLong(offset, ((long) operation << 32) | (argument & 0xFFFFFFFFL));
+        VarHandle.releaseFence();  // the seal must not be written before the operation
+        header.putLong(offset + 8, seal(logSize));
+        logSize++;
+    }
+
+    /**
+     * Writes the current state as the snapshot of the next epoch, and makes it the current
+     * snapshot, with an empty log.
+     *
+     * @throws java.io.UncheckedIOException
+     *         if the snapshot cannot be written; the current snapshot and log are then unchanged
+     */
+    public void checkpoint() {
+        long next = epoch + 1;
+        int length = memory.savedSize();
+        try (FileChannel snapshot = FileChannel.open(snapshotPath(next),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            snapshot.truncate(0);
+            MappedByteBuffer out = snapshot.map(FileChannel.MapMode.READ_WRITE, 0, 16 + length);
+            out.putLong(next);
+            out.putInt(length);
+            memory.save(out);
+            CRC32C crc = new CRC32C();
+            crc.update(out.slice(12, length));
+            out.putInt((int) crc.getValue());
+            out.force();
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+        // The snapshot is on disk: a single write moves the header to it
+        header.putLong(EPOCH_OFFSET, next);
+        header.force();
+        epoch = next;
+        logSize = 0;
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), as PackedMemorySpace does, and
+     * logs the allocation. Returns the base address of the allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        reserveRecord();
+        int address = memory.malloc(length);
+        if (address >= 0) {
+            log(MALLOC, length);
+        }
+        return address;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, as PackedMemorySpace
+     * does, and logs it if a block was freed.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        reserveRecord();
+        int before = memory.getFreeBlockCount();
+        memory.free(address);
+        if (memory.getFreeBlockCount() > before) {
+            log(FREE, address);
+        }
+    }
+
+    /**
+     * Performs defragmentation of this memory space, as PackedMemorySpace does, and logs it.
+     */
+    public boolean defrag() {
+        reserveRecord();
+        memory.defrag();
+        log(DEFRAG, 0);
+        return true;
+    }
+
+    /** Returns the arena that maps the words of this memory space. */
+    public Arena getArena() {
+        return arena;
+    }
+
+    /** Returns the current epoch: the number of checkpoints made since the file was created. */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** Returns the number of records in the current log. */
+    public int getLogSize() {
+        return logSize;
+    }
+
+    /**
+     * Forces the log, and the words of the memory space, to the disk.
+     */
+    public void sync() {
+        header.force();
+        data.force();
+    }
+
+    /**
+     * Makes a checkpoint, forces the words of the memory space to the disk, and closes the file.
+     * The memory space must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        data.force();
+        channel.close();
+    }
+
+    /**
+     * A textual representation of the free list and the allocated list of this memory space,
+     * for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        return memory.toString();
+    }
+}
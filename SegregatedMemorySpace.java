@@ -0,0 +1,187 @@
+/**
+ * Represents a managed memory space that keeps its free blocks in segregated size classes.
+ * Size class k holds the free blocks whose length is between 2^k and 2^(k+1) - 1, in a list
+ * of its own, and a bitmap records which classes are not empty.
+ * <p>
+ * malloc first scans the class of the requested length (whose blocks may be too short), and
+ * otherwise takes the first block of the smallest larger class that is not empty, which is
+ * always long enough and is found with a single bit operation. A small request therefore
+ * never scans past large blocks, and vice versa.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace.
+ */
+public class SegregatedMemorySpace implements Allocator {
+
+    // Lengths are positive ints, so their classes are 0..30
+    private static final int CLASSES = 31;
+
+    // freeLists[k] is the list of the free blocks of size class k
+    private LinkedList[] freeLists;
+
+    // Bit k is set if and only if freeLists[k] is not empty
+    private int nonEmpty;
+
+    // A list of the memory blocks that are presently allocated, indexed by base address
+    private IndexedList allocatedList;
+
+    // Holds the free nodes of all the classes during defrag, and is empty otherwise
+    private LinkedList gathered = new LinkedList();
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public SegregatedMemorySpace(int maxSize) {
+        freeLists = new LinkedList[CLASSES];
+        for (int k = 0; k < CLASSES; k++) {
+            freeLists[k] = new LinkedList();
+        }
+        allocatedList = new IndexedList();
+        if (maxSize > 0) {
+            addFree(new MemoryBlock(0, maxSize));
+        }
+    }
+
+    /** Returns the size class of the given (positive) length: floor(log2(length)). */
+    static int sizeClass(int length) {
+        return 31 - Integer.numberOfLeadingZeros(length);
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words). Returns the
+     * base address of the allocated block, or -1 if unable to allocate.
+     * The block is allocated from the beginning of the chosen free block,
+     * and the rest of the free block is moved to its new size class.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int k = sizeClass(length);
+        // The blocks of the request's own class may be too short: first-fit within the class
+        if ((nonEmpty & (1 << k)) != 0) {
+            for (Node current = freeLists[k].getFirst(); current != null; current = current.next) {
+                if (current.block.length >= length) {
+                    return allocate(k, current, length);
+                }
+            }
+        }
+        // Every block of a larger class is long enough
+        int larger = nonEmpty & (-1 << (k + 1));
+        if (larger == 0) {
+            return -1;
+        }
+        int j = Integer.numberOfTrailingZeros(larger);
+        return allocate(j, freeLists[j].getFirst(), length);
+    }
+
+    /**
+     * Allocates a block of the given length from the beginning of the given free node,
+     * which belongs to size class k, and appends it to the allocated list.
+     */
+    private int allocate(int k, Node node, int length) {
+        MemoryBlock freeBlk = node.block;
+        int allocatedBase = freeBlk.baseAddress;
+        int remaining = freeBlk.length - length;
+        if (remaining > 0 && sizeClass(remaining) == k) {
+            // The rest of the block stays in the same class, and in the same node
+            freeBlk.baseAddress += length;
+            freeBlk.length = remaining;
+        } else {
+            freeLists[k].unlink(node);
+            if (freeLists[k].getSize() == 0) {
+                nonEmpty &= ~(1 << k);
+            }
+            if (remaining > 0) {
+                freeBlk.baseAddress += length;
+                freeBlk.length = remaining;
+                addFree(freeBlk);
+            }
+        }
+        allocatedList.add(new MemoryBlock(allocatedBase, length));
+        return allocatedBase;
+    }
+
+    /** Adds the given block to the end of the free list of its size class. */
+    private void addFree(MemoryBlock blk) {
+        int k = sizeClass(blk.length);
+        freeLists[k].addLast(blk);
+        nonEmpty |= 1 << k;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address.
+     * The block is removed from the allocated list, and added at the end of
+     * the free list of its size class.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocatedList.getSize() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        MemoryBlock blk = allocatedList.remove(address);
+        if (blk != null) {
+            addFree(blk);
+        }
+    }
+
+    /**
+     * Performs defragmantation of this memory space. The free nodes of all the classes
+     * are gathered into one list, which is sorted by base address and coalesced, and the
+     * nodes of the merged blocks are then moved back to their size classes. The nodes are
+     * relinked as they are, so no list or node is created. Takes O(n log n) time.
+     */
+    public boolean defrag() {
+        for (int k = 0; k < CLASSES; k++) {
+            gathered.appendAll(freeLists[k]);
+        }
+        nonEmpty = 0;
+        gathered.sortByBaseAddress();
+        gathered.coalesce();
+        while (gathered.getSize() > 0) {
+            int k = sizeClass(gathered.getFirst().block.length);
+            gathered.moveFirstTo(freeLists[k]);
+            nonEmpty |= 1 << k;
+        }
+        return true;
+    }
+
+    /** Returns the number of free blocks, in all size classes. */
+    public int getFreeBlockCount() {
+        int count = 0;
+        for (int k = 0; k < CLASSES; k++) {
+            count += freeLists[k].getSize();
+        }
+        return count;
+    }
+
+    /**
+     * A textual representation of the free blocks (class by class, from the smallest class)
+     * and of the allocated blocks of this memory space, for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < CLASSES; k++) {
+            for (Node current = freeLists[k].getFirst(); current != null; current = current.next) {
+                MemoryBlock f = current.block;
+                sb.append("(").append(f.baseAddress).append(" , ").append(f.length).append(") ");
+            }
+        }
+        sb.append("\n");
+        ListIterator itr = allocatedList.iterator();
+        while (itr.hasNext()) {
+            MemoryBlock a = itr.next();
+            sb.append("(").append(a.baseAddress).append(" , ").append(a.length).append(") ");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * Represents a list of memory blocks, kept in an indexable skip list, so that access,
+ * insertion and removal by position take O(log n) expected time, instead of O(n) in a
+ * LinkedList. The public API and the toString format are the same as LinkedList's.
+ * <p>
+ * The bottom level is an ordinary doubly linked list of nodes, so getFirst, getLast, the
+ * nodes' next and prev links and iterator() behave as in LinkedList. About half of the nodes
+ * also appear at level 1, a quarter at level 2, and so on. Every link above the bottom level
+ * records its width: the number of positions it skips. A search by position walks down the
+ * levels, adding up widths, and visits O(log n) nodes in expectation.
+ * <p>
+ * Every node also links back to its predecessor at each of its levels, so remove(Node) can
+ * find the links to update without knowing the node's position.
+ */
+public class SkipList implements BlockList {
+
+	private static final int MAX_LEVEL = 32;
+
+	/** A node that takes part in the levels 0 to height - 1. */
+	private static class SkipNode extends Node {
+		// forward[i] is the next node at level i, or null at the end (for i >= 1)
+		SkipNode[] forward;
+		// backward[i] is the previous node at level i, or the head (for i >= 1)
+		SkipNode[] backward;
+		// width[i] is the number of positions from this node to forward[i], or to the
+		// position that follows the last node if forward[i] is null (for i >= 1)
+		int[] width;
+
+		SkipNode(MemoryBlock block, int height) {
+			super(block);
+			forward = new SkipNode[height];
+			backward = new SkipNode[height];
+			width = new int[height];
+		}
+
+		int height() {
+			return forward.length;
+		}
+	}
+
+	// A node that precedes the first node at every level, at position -1. Its next link
+	// is the first node, but the first node's prev link is null, as in LinkedList.
+	private SkipNode head;
+	private Node last;  // pointer to the last element of this list
+	private int size;   // number of elements in this list
+	private int levels; // number of levels in use, at least 1
+
+	private int seed = 0x2545F491;  // state of the height generator
+
+	// The predecessors at every level, and their positions, found by the last search
+	private SkipNode[] update = new SkipNode[MAX_LEVEL];
+	private int[] rank = new int[MAX_LEVEL];
+
+	/**
+	 * Constructs a new list.
+	 */
+	public SkipList() {
+		head = new SkipNode(null, MAX_LEVEL);
+		levels = 1;
+	}
+
+	public Node getFirst() {
+		return head.next;
+	}
+
+	public Node getLast() {
+		return last;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the node located at the given index in this list, in O(log n) expected time.
+	 *
+	 * @param index
+	 *        the index of the node to retrieve
+	 * @return the node at the given index
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public Node getNode(int index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		if (index == size - 1) {
+			return last;
+		}
+		SkipNode x = head;
+		int pos = -1;
+		for (int i = levels - 1; i >= 1; i--) {
+			while (x.forward[i] != null && pos + x.width[i] <= index) {
+				pos += x.width[i];
+				x = x.forward[i];
+			}
+		}
+		Node current = x;
+		while (pos < index) {
+			current = current.next;
+			pos++;
+		}
+		return current;
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and inserts it at the
+	 * given index in this list, in O(log n) expected time.
+	 *
+	 * @param index
+	 *        the index before which the memory block should be inserted
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than the list's size
+	 */
+	public void add(int index, MemoryBlock block) {
+		if (index < 0 || index > size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		int height = randomHeight();
+		// New levels start with a link from the head to the end of the list
+		for (; levels < height; levels++) {
+			head.forward[levels] = null;
+			head.width[levels] = size + 1;
+		}
+		Node previous = findPredecessors(index);
+		SkipNode node = new SkipNode(block, height);
+		node.owner = this;
+
+		Node next = previous.next;
+		node.next = next;
+		node.prev = (previous == head) ? null : previous;
+		previous.next = node;
+		if (next == null) {
+			last = node;
+		} else {
+			next.prev = node;
+		}
+		for (int i = 1; i < height; i++) {
+			SkipNode p = update[i];
+			node.forward[i] = p.forward[i];
+			node.backward[i] = p;
+			if (p.forward[i] != null) {
+				p.forward[i].backward[i] = node;
+			}
+			p.forward[i] = node;
+			node.width[i] = p.width[i] - (index - 1 - rank[i]);
+			p.width[i] = index - rank[i];
+		}
+		// The links above the new node now skip one more position
+		for (int i = height; i < levels; i++) {
+			update[i].width[i]++;
+		}
+		size++;
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and adds it
+	 * to the end of this list (the node will become the list's last element).
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addLast(MemoryBlock block) {
+		add(size, block);
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and adds it
+	 * to the beginning of this list (the node will become the list's first element).
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addFirst(MemoryBlock block) {
+		add(0, block);
+	}
+
+	/**
+	 * Gets the memory block located at the given index in this list, in O(log n) expected time.
+	 *
+	 * @param index
+	 *        the index of the retrieved memory block
+	 * @return the memory block at the given index
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public MemoryBlock getBlock(int index) {
+		return getNode(index).block;
+	}
+
+	/**
+	 * Gets the index of the node pointing to the given memory block.
+	 * Blocks are not ordered, so this takes O(n) time, as in LinkedList.
+	 *
+	 * @param block
+	 *        the given memory block
+	 * @return the index of the block, or -1 if the block is not in this list
+	 */
+	public int indexOf(MemoryBlock block) {
+		if (block == null) {
+			return -1;
+		}
+		int i = 0;
+		for (Node current = head.next; current != null; current = current.next) {
+			if (current.block == block) {
+				return i;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the given node from this list, in O(log n) expected time. If the node is
+	 * not in this list (because it was removed, or belongs to another list), nothing
+	 * happens.
+	 *
+	 * @param node
+	 *        the node that will be removed from this list
+	 */
+	public void remove(Node node) {
+		if (node == null) {
+			throw new NullPointerException("NullPointerException!");
+		}
+		if (node.owner != this) {
+			return;
+		}
+		unlink((SkipNode) node);
+	}
+
+	/**
+	 * Removes from this list the node which is located at the given index,
+	 * in O(log n) expected time.
+	 *
+	 * @param index
+	 *        the location of the node that has to be removed.
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public void remove(int index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		unlink((SkipNode) getNode(index));
+	}
+
+	/**
+	 * Removes from this list the node pointing to the given memory block.
+	 *
+	 * @param block
+	 *        the memory block that should be removed from the list
+	 * @throws IllegalArgumentException
+	 *         if the given memory block is not in this list
+	 */
+	public void remove(MemoryBlock block) {
+		if (block == null) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		for (Node current = head.next; current != null; current = current.next) {
+			if (current.block == block) {
+				unlink((SkipNode) current);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("index must be between 0 and size");
+	}
+
+	/**
+	 * Sorts this list by the base addresses of its memory blocks, keeping the order of
+	 * blocks with equal base addresses. The nodes keep their heights, and all the levels
+	 * are relinked in a single walk after the sort, in O(n log n) time overall.
+	 */
+	public void sortByBaseAddress() {
+		if (size < 2) {
+			return;
+		}
+		Node[] nodes = new Node[size];
+		int n = 0;
+		for (Node current = head.next; current != null; current = current.next) {
+			nodes[n++] = current;
+		}
+		java.util.Arrays.sort(nodes, (a, b) -> Integer.compare(a.block.baseAddress, b.block.baseAddress));
+
+		SkipNode[] tails = update;
+		for (int i = 0; i < levels; i++) {
+			tails[i] = head;
+			rank[i] = -1;
+		}
+		Node previous = null;
+		for (int pos = 0; pos < size; pos++) {
+			SkipNode node = (SkipNode) nodes[pos];
+			node.prev = previous;
+			if (previous == null) {
+				head.next = node;
+			} else {
+				previous.next = node;
+			}
+			previous = node;
+			for (int i = 1; i < node.height(); i++) {
+				tails[i].forward[i] = node;
+				tails[i].width[i] = pos - rank[i];
+				node.backward[i] = tails[i];
+				tails[i] = node;
+				rank[i] = pos;
+			}
+		}
+		previous.next = null;
+		last = previous;
+		for (int i = 1; i < levels; i++) {
+			tails[i].forward[i] = null;
+			tails[i].width[i] = size - rank[i];
+		}
+	}
+
+	/**
+	 * Merges every memory block in this list with the blocks that directly follow it in
+	 * memory. The list must be sorted by base address (see sortByBaseAddress).
+	 * The merged blocks' nodes are removed from this list.
+	 */
+	public void coalesce() {
+		if (size < 2) {
+			return;
+		}
+		Node current = head.next;
+		while (current.next != null) {
+			MemoryBlock curr = current.block;
+			MemoryBlock nxt = current.next.block;
+			if (curr.baseAddress + curr.length == nxt.baseAddress) {
+				curr.length += nxt.length;
+				unlink((SkipNode) current.next);
+			} else {
+				current = current.next;
+			}
+		}
+	}
+
+	/**
+	 * Returns an iterator over this list, starting with the first element.
+	 */
+	public ListIterator iterator() {
+		return new ListIterator(this);
+	}
+
+	/**
+	 * Finds the predecessors of the given position at every level above the bottom one
+	 * (into update and rank), and returns the node at the position before it (the head
+	 * for position 0).
+	 */
+	private Node findPredecessors(int index) {
+		SkipNode x = head;
+		int pos = -1;
+		for (int i = levels - 1; i >= 1; i--) {
+			while (x.forward[i] != null && pos + x.width[i] < index) {
+				pos += x.width[i];
+				x = x.forward[i];
+			}
+			update[i] = x;
+			rank[i] = pos;
+		}
+		Node current = x;
+		while (pos + 1 < index) {
+			current = current.next;
+			pos++;
+		}
+		return current;
+	}
+
+	/** Unlinks the given node, which must be in this list, from all the levels. */
+	private void unlink(SkipNode node) {
+		Node previous = node.prev;
+		Node next = node.next;
+		if (previous == null) {
+			head.next = next;
+		} else {
+			previous.next = next;
+		}
+		if (next == null) {
+			last = previous;
+		} else {
+			next.prev = previous;
+		}
+		int height = node.height();
+		for (int i = 1; i < height; i++) {
+			SkipNode b = node.backward[i];
+			SkipNode f = node.forward[i];
+			b.forward[i] = f;
+			if (f != null) {
+				f.backward[i] = b;
+			}
+			b.width[i] += node.width[i] - 1;
+		}
+		// The links above the node now skip one position less. The link at level i
+		// starts at the nearest preceding node that is taller than i, which is found
+		// by climbing back along the tallest links available.
+		SkipNode y = node;
+		for (int i = height; i < levels; i++) {
+			while (y.height() <= i) {
+				y = back(y);
+			}
+			y.width[i]--;
+		}
+		while (levels > 1 && head.forward[levels - 1] == null) {
+			levels--;
+		}
+		node.prev = null;
+		node.next = null;
+		node.owner = null;
+		java.util.Arrays.fill(node.forward, null);
+		java.util.Arrays.fill(node.backward, null);
+		size--;
+	}
+
+	/** Returns the nearest preceding node whose height is at least the given node's height. */
+	private SkipNode back(SkipNode node) {
+		int top = node.height() - 1;
+		if (top == 0) {
+			return (node.prev == null) ? head : (SkipNode) node.prev;
+		}
+		return node.backward[top];
+	}
+
+	/** Returns a random height: 1 with probability 1/2, 2 with probability 1/4, and so on. */
+	private int randomHeight() {
+		// xorshift: a fast pseudo-random sequence
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return Math.min(1 + Integer.numberOfTrailingZeros(seed), MAX_LEVEL);
+	}
+
+	/**
+	 * A textual representation of this list, for debugging.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (Node current = head.next; current != null; current = current.next) {
+			sb.append(current.block);
+			if (current.next != null) {
+				sb.append(", ");
+			}
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+}
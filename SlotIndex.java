@@ -0,0 +1,156 @@
+/**
+ * Represents a hash map from memory addresses to slots (non-negative ints), such as the
+ * positions of blocks in a PackedBlockList. This is AddressIndex with int values: keys and
+ * values live in two int arrays, so an entry costs no object at all.
+ * Addresses are never negative, which lets -1 mark an empty slot.
+ */
+public class SlotIndex {
+
+	private static final int EMPTY = -1;  // marks a slot that holds no key
+
+	private int[] keys;    // the addresses, or EMPTY
+	private int[] values;  // values[i] is the slot mapped to keys[i]
+	private int size;      // number of addresses in this map
+	private int mask;      // capacity - 1, the capacity being a power of two
+	private int shift;     // 32 - log2(capacity)
+
+	/**
+	 * Constructs a new, empty map.
+	 */
+	public SlotIndex() {
+		allocate(16);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the slot mapped to the given address.
+	 *
+	 * @param address
+	 *        the given address
+	 * @return the slot mapped to the address, or -1 if the address is not in this map
+	 */
+	public int get(int address) {
+		int i = find(address);
+		return (keys[i] == EMPTY) ? -1 : values[i];
+	}
+
+	/**
+	 * Maps the given address to the given slot, replacing any previous mapping.
+	 *
+	 * @param address
+	 *        the given address, which must not be negative
+	 * @param slot
+	 *        the slot to associate with the address
+	 * @throws IllegalArgumentException
+	 *         if the address is negative
+	 */
+	public void put(int address, int slot) {
+		if (address < 0) {
+			throw new IllegalArgumentException("address must be non-negative");
+		}
+		int i = find(address);
+		if (keys[i] == EMPTY) {
+			keys[i] = address;
+			size++;
+		}
+		values[i] = slot;
+		// Keeps the load factor at most 1/2, so probe sequences stay short
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the given address from this map, if it is there.
+	 *
+	 * @param address
+	 *        the address to remove
+	 * @return the slot that was mapped to the address, or -1 if the address was not in this map
+	 */
+	public int remove(int address) {
+		int i = find(address);
+		if (keys[i] == EMPTY) {
+			return -1;
+		}
+		int removed = values[i];
+		// Backward-shift deletion, as in AddressIndex
+		int hole = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == EMPTY) {
+				break;
+			}
+			int home = slot(keys[j]);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = EMPTY;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Copies the addresses in this map, and the slots mapped to them, into the given arrays,
+	 * from the given index on, in no particular order.
+	 *
+	 * @param addresses
+	 *        the array that receives the addresses
+	 * @param slots
+	 *        the array that receives the slots, at the indices of their addresses
+	 * @param from
+	 *        the index of the first entry to write
+	 * @return the index past the last entry written
+	 */
+	public int copyTo(int[] addresses, int[] slots, int from) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				addresses[from] = keys[i];
+				slots[from] = values[i];
+				from++;
+			}
+		}
+		return from;
+	}
+
+	/** Returns the slot that holds the given address, or the empty slot where it would go. */
+	private int find(int address) {
+		int i = slot(address);
+		while (keys[i] != EMPTY && keys[i] != address) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/** Returns the home slot of the given address (Fibonacci hashing, as in AddressIndex). */
+	private int slot(int address) {
+		return (address * 0x9E3779B9) >>> shift;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+		java.util.Arrays.fill(keys, EMPTY);
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int j = find(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,940 @@
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/* This program checks that every implementation of Allocator follows the contract of
+ * MemorySpace, by replaying the same random sequence of malloc, free and defrag calls on each
+ * of them. After every call, the state printed by toString is parsed and checked:
+ * the free blocks and the allocated blocks must not overlap, must stay within the memory
+ * space, and must together cover all of it. At the end, all blocks are freed, and defrag
+ * must leave a single free block that spans the whole memory space.
+ */
+public class TestAllocators {
+
+    private static final int SIZE = 4096;
+
+    public static void main(String[] args) {
+        test("MemorySpace", n -> new MemorySpace(n));
+        test("MemorySpace (address-ordered)", n -> new MemorySpace(n, true));
+        for (AllocationPolicy policy : AllocationPolicy.values()) {
+            test("MemorySpace (" + policy + ", defrag on failure)", n -> {
+                MemorySpace memory = new MemorySpace(n, policy);
+                memory.setDefragOnFailure(true);
+                return memory;
+            });
+        }
+        for (AllocationPolicy policy : AllocationPolicy.values()) {
+            test("MemorySpace (" + policy + ")", n -> new MemorySpace(n, policy));
+        }
+        test("SegregatedMemorySpace", n -> new SegregatedMemorySpace(n));
+        test("BuddyMemorySpace", n -> new BuddyMemorySpace(n), len -> 1 << BuddyMemorySpace.orderOf(len));
+        testBuddy();
+        test("TreeMemorySpace", n -> new TreeMemorySpace(n));
+        testSameAddresses("TreeMemorySpace", new TreeMemorySpace(SIZE),
+                new MemorySpace(SIZE, AllocationPolicy.BEST_FIT, true));
+        testTree();
+        test("BitmapMemorySpace", n -> new BitmapMemorySpace(n));
+        test("BitmapMemorySpace (8-word chunks)", n -> new BitmapMemorySpace(n, 8), len -> (len + 7) / 8 * 8);
+        testSameAddresses("BitmapMemorySpace", new BitmapMemorySpace(SIZE),
+                new MemorySpace(SIZE, AllocationPolicy.FIRST_FIT, true));
+        testBitmap();
+        test("TlsfMemorySpace", n -> new TlsfMemorySpace(n));
+        testTlsf();
+        test("PackedMemorySpace", n -> new PackedMemorySpace(n));
+        testSameState("PackedMemorySpace", new PackedMemorySpace(SIZE), new MemorySpace(SIZE));
+        test("ConcurrentMemorySpace (1 stripe)", n -> new ConcurrentMemorySpace(n, 1));
+        testSameState("ConcurrentMemorySpace (1 stripe)", new ConcurrentMemorySpace(SIZE, 1), new MemorySpace(SIZE));
+        testStriped();
+        testConcurrentThreads("ConcurrentMemorySpace", new ConcurrentMemorySpace(SIZE, 4));
+        testDefragDaemon();
+        test("CachingMemorySpace (1 stripe)", n -> new CachingMemorySpace(n, 1));
+        testCaching();
+        testConcurrentThreads("CachingMemorySpace", new CachingMemorySpace(SIZE, 4));
+        test("LockFreeMemorySpace", n -> new LockFreeMemorySpace(n));
+        testConcurrentThreads("LockFreeMemorySpace", new LockFreeMemorySpace(SIZE));
+        testLockFree();
+        test("ArenaMemorySpace (debug)", n -> new ArenaMemorySpace(n, true));
+        testArena();
+        testPersistent();
+
+        System.out.println("All tests completed successfully!");
+    }
+
+    private static void test(String name, IntFunction<Allocator> factory) {
+        test(name, factory, len -> len);
+    }
+
+    /**
+     * Tests the given allocator. The rounding function maps a requested length to the length
+     * of the block that the allocator actually reserves for it.
+     */
+    private static void test(String name, IntFunction<Allocator> factory, IntUnaryOperator rounding) {
+        Allocator memory = factory.apply(SIZE);
+        java.util.Random random = new java.util.Random(7);
+        int[] live = new int[SIZE];
+        int[] lengths = new int[SIZE];
+        int liveCount = 0;
+        for (int op = 0; op < 3000; op++) {
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                memory.defrag();
+            } else if (choice < 10 && liveCount > 0) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                liveCount--;
+                live[i] = live[liveCount];
+                lengths[i] = lengths[liveCount];
+            } else {
+                int length = 1 + random.nextInt(random.nextBoolean() ? 8 : 200);
+                int address = memory.malloc(length);
+                if (address >= 0) {
+                    live[liveCount] = address;
+                    lengths[liveCount] = rounding.applyAsInt(length);
+                    liveCount++;
+                }
+            }
+            check(name + ", operation " + op, memory.toString(), live, lengths, liveCount);
+        }
+        assertEqual(-1, memory.malloc(0), name + ": malloc(0)");
+        while (liveCount > 0) {
+            liveCount--;
+            memory.free(live[liveCount]);
+        }
+        memory.defrag();
+        check(name + ", after freeing everything", memory.toString(), live, lengths, 0);
+        int[][] free = parse(memory.toString().split("\n", -1)[0]);
+        assertEqual(1, free.length, name + ": free blocks after defrag");
+        assertEqual(SIZE, free[0][1], name + ": free block length after defrag");
+    }
+
+    /**
+     * Checks that the given allocator returns the same addresses as the reference allocator,
+     * which uses the same placement policy, on a random trace.
+     */
+    private static void testSameAddresses(String name, Allocator memory, Allocator reference) {
+        java.util.Random random = new java.util.Random(11);
+        int[] live = new int[SIZE];
+        int liveCount = 0;
+        for (int op = 0; op < 5000; op++) {
+            if (random.nextInt(2) == 0 && liveCount > 0) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                reference.free(live[i]);
+                live[i] = live[--liveCount];
+            } else {
+                int length = 1 + random.nextInt(100);
+                int address = reference.malloc(length);
+                assertEqual(address, memory.malloc(length), name + ", operation " + op + ": address");
+                if (address >= 0) {
+                    live[liveCount++] = address;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the given allocator returns the same addresses as the reference, and reaches
+     * the same state, as printed by toString, on the same random sequence of calls.
+     */
+    private static void testSameState(String name, Allocator memory, Allocator reference) {
+        java.util.Random random = new java.util.Random(13);
+        int[] live = new int[SIZE];
+        int liveCount = 0;
+        for (int op = 0; op < 5000; op++) {
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                memory.defrag();
+                reference.defrag();
+            } else if (choice < 10 && liveCount > 0) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                reference.free(live[i]);
+                live[i] = live[--liveCount];
+            } else {
+                int length = 1 + random.nextInt(100);
+                int address = reference.malloc(length);
+                assertEqual(address, memory.malloc(length), name + ", operation " + op + ": address");
+                if (address >= 0) {
+                    live[liveCount++] = address;
+                }
+            }
+            assertString(reference.toString(), memory.toString(), name + ", operation " + op + ": state");
+        }
+    }
+
+    private static void testBuddy() {
+        BuddyMemorySpace memory = new BuddyMemorySpace(100);
+        assertString("(96 , 4) (64 , 32) (0 , 64) \n", memory.toString(), "Buddy initial blocks");
+
+        memory = new BuddyMemorySpace(64);
+        assertEqual(0, memory.malloc(5), "Buddy split");
+        assertString("(8 , 8) (16 , 16) (32 , 32) \n(0 , 8) ", memory.toString(), "Buddy after split");
+        assertEqual(8, memory.malloc(8), "Buddy exact order");
+        assertEqual(16, memory.malloc(3), "Buddy smallest sufficient order");
+        assertString("(20 , 4) (24 , 8) (32 , 32) \n(0 , 8) (8 , 8) (16 , 4) ", memory.toString(), "Buddy allocations");
+        if (Math.abs(memory.getInternalFragmentation() - 4.0 / 20) > 1e-9) {
+            throw new AssertionError("Buddy internal fragmentation: " + memory.getInternalFragmentation());
+        }
+        memory.free(0);
+        assertString("(20 , 4) (24 , 8) (0 , 8) (32 , 32) \n(8 , 8) (16 , 4) ", memory.toString(), "Buddy free without merge");
+        memory.free(8);
+        assertString("(20 , 4) (24 , 8) (0 , 16) (32 , 32) \n(16 , 4) ", memory.toString(), "Buddy merge");
+        memory.free(16);
+        assertString("(0 , 64) \n", memory.toString(), "Buddy cascading merge");
+        assertEqual(-1, memory.malloc(65), "Buddy failure");
+    }
+
+    private static void testBitmap() {
+        BitmapMemorySpace memory = new BitmapMemorySpace(100, 10);
+        assertEqual(0, memory.malloc(10), "Bitmap first block");
+        assertEqual(10, memory.malloc(1), "Bitmap rounds up to a chunk");
+        assertEqual(20, memory.malloc(25), "Bitmap multi-chunk block");
+        assertString("(50 , 50) \n(0 , 10) (10 , 10) (20 , 30) ", memory.toString(), "Bitmap allocations");
+        memory.free(30); // inside a block: ignored
+        memory.free(5);  // not on a chunk boundary: ignored
+        memory.free(10);
+        assertString("(10 , 10) (50 , 50) \n(0 , 10) (20 , 30) ", memory.toString(), "Bitmap free");
+        assertEqual(50, memory.malloc(11), "Bitmap skips a short run");
+        memory.free(0);
+        memory.free(20);
+        assertString("(0 , 50) (70 , 30) \n(50 , 20) ", memory.toString(), "Bitmap merged runs");
+        assertEqual(-1, memory.malloc(51), "Bitmap failure");
+
+        // Allocations that span several words of the bitmap
+        memory = new BitmapMemorySpace(1000);
+        assertEqual(0, memory.malloc(63), "Bitmap within a word");
+        assertEqual(63, memory.malloc(200), "Bitmap across words");
+        assertEqual(263, memory.malloc(737), "Bitmap up to the last word");
+        assertEqual(-1, memory.malloc(1), "Bitmap full");
+        memory.free(63);
+        assertEqual(63, memory.malloc(200), "Bitmap reuses the freed words");
+    }
+
+    private static void testTree() {
+        TreeMemorySpace memory = new TreeMemorySpace(100);
+        assertEqual(0, memory.malloc(10), "Tree first allocation");
+        assertEqual(10, memory.malloc(20), "Tree second allocation");
+        assertEqual(30, memory.malloc(30), "Tree third allocation");
+        memory.free(10);
+        assertString("(10 , 20) (60 , 40) \n(0 , 10) (30 , 30) ", memory.toString(), "Tree free blocks");
+        assertEqual(10, memory.malloc(15), "Tree takes the shortest sufficient block");
+        memory.free(0);
+        assertEqual(3, memory.getFreeBlockCount(), "Tree free without free neighbours");
+        memory.free(10);
+        assertString("(0 , 30) (60 , 40) \n(30 , 30) ", memory.toString(), "Tree merges both neighbours");
+        memory.free(30);
+        assertString("(0 , 100) \n", memory.toString(), "Tree merges into one block");
+        assertEqual(-1, memory.malloc(101), "Tree failure");
+    }
+
+    private static void testTlsf() {
+        assertEqual(0, TlsfMemorySpace.firstLevel(15), "TLSF small first level");
+        assertEqual(15, TlsfMemorySpace.secondLevel(15), "TLSF small second level");
+        assertEqual(1, TlsfMemorySpace.firstLevel(16), "TLSF first level of 16");
+        assertEqual(0, TlsfMemorySpace.secondLevel(16), "TLSF second level of 16");
+        assertEqual(2, TlsfMemorySpace.firstLevel(35), "TLSF first level of 35");
+        assertEqual(1, TlsfMemorySpace.secondLevel(35), "TLSF second level of 35");
+        assertEqual(27, TlsfMemorySpace.firstLevel(Integer.MAX_VALUE), "TLSF largest first level");
+
+        TlsfMemorySpace memory = new TlsfMemorySpace(100);
+        assertEqual(0, memory.malloc(10), "TLSF first allocation");
+        assertEqual(10, memory.malloc(20), "TLSF second allocation");
+        assertEqual(30, memory.malloc(30), "TLSF third allocation");
+        memory.free(10);
+        assertString("(10 , 20) (60 , 40) \n(0 , 10) (30 , 30) ", memory.toString(), "TLSF bins");
+        assertEqual(10, memory.malloc(20), "TLSF takes the smallest sufficient bin");
+        memory.free(10);
+        memory.free(0);
+        memory.free(30);
+        assertString("(0 , 100) \n", memory.toString(), "TLSF coalescing");
+        assertEqual(-1, memory.malloc(101), "TLSF failure");
+
+        // An address inside a block, or inside a merged-away block, names no block
+        memory = new TlsfMemorySpace(100);
+        memory.malloc(10);
+        memory.malloc(20);
+        memory.free(5);
+        memory.free(15);
+        memory.free(0);
+        memory.free(10);
+        memory.malloc(50);
+        memory.free(10);
+        memory.free(30);
+        assertString("(50 , 50) \n(0 , 50) ", memory.toString(), "TLSF ignores addresses that begin no block");
+
+        // The allocated blocks are listed in allocation order
+        memory = new TlsfMemorySpace(100);
+        memory.malloc(10);
+        memory.malloc(20);
+        memory.free(0);
+        assertEqual(0, memory.malloc(5), "TLSF reuses the freed block");
+        assertString("(5 , 5) (30 , 70) \n(10 , 20) (0 , 5) ", memory.toString(), "TLSF allocation order");
+
+        // The memory space can be split into as many blocks as it has words
+        memory = new TlsfMemorySpace(100);
+        for (int i = 0; i < 100; i++) {
+            assertEqual(i, memory.malloc(1), "TLSF one-word block " + i);
+        }
+        assertEqual(-1, memory.malloc(1), "TLSF full of one-word blocks");
+        for (int i = 0; i < 100; i += 2) {
+            memory.free(i);
+        }
+        assertEqual(50, memory.getFreeBlockCount(), "TLSF every other one-word block free");
+        for (int i = 1; i < 100; i += 2) {
+            memory.free(i);
+        }
+        assertString("(0 , 100) \n", memory.toString(), "TLSF coalescing one-word blocks");
+    }
+
+    private static void testStriped() {
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(100, 4);
+        assertEqual(4, memory.getStripeCount(), "Striped stripe count");
+        assertEqual(-1, memory.malloc(26), "Striped request longer than a stripe");
+        java.util.Set<Integer> addresses = new java.util.TreeSet<>();
+        for (int i = 0; i < 4; i++) {
+            addresses.add(memory.malloc(25));
+        }
+        assertString("[0, 25, 50, 75]", addresses.toString(), "Striped fallback to the other stripes");
+        assertEqual(-1, memory.malloc(1), "Striped full");
+        memory.free(50);
+        assertEqual(50, memory.malloc(10), "Striped reuses the freed stripe");
+        assertEqual(3, new ConcurrentMemorySpace(3, 8).getStripeCount(), "Striped at most one stripe per word");
+
+        // A random trace on 4 stripes, checked after every call as in test()
+        memory = new ConcurrentMemorySpace(SIZE, 4);
+        java.util.Random random = new java.util.Random(17);
+        int[] live = new int[SIZE];
+        int[] lengths = new int[SIZE];
+        int liveCount = 0;
+        for (int op = 0; op < 3000; op++) {
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                memory.defrag();
+            } else if (choice < 10 && liveCount > 0) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                liveCount--;
+                live[i] = live[liveCount];
+                lengths[i] = lengths[liveCount];
+            } else {
+                int length = 1 + random.nextInt(200);
+                int address = memory.malloc(length);
+                if (address >= 0) {
+                    live[liveCount] = address;
+                    lengths[liveCount] = length;
+                    liveCount++;
+                }
+            }
+            check("Striped, operation " + op, memory.toString(), live, lengths, liveCount);
+        }
+        while (liveCount > 0) {
+            memory.free(live[--liveCount]);
+        }
+        memory.defrag();
+        assertString("(0 , 1024) (1024 , 1024) (2048 , 1024) (3072 , 1024) \n", memory.toString(),
+                "Striped defrag coalesces each stripe");
+        try {
+            memory.free(0);
+            throw new AssertionError("Striped free with nothing allocated: no exception");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Runs several threads that malloc and free concurrently on the given allocator. Every
+     * thread claims the words of each block it allocates in a shared array, and releases them
+     * before freeing the block, so any block that is handed out twice is detected.
+     */
+    private static void testConcurrentThreads(String name, Allocator memory) {
+        java.util.concurrent.atomic.AtomicIntegerArray owner = new java.util.concurrent.atomic.AtomicIntegerArray(SIZE);
+        java.util.concurrent.atomic.AtomicReference<String> failure = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t + 1;
+            threads[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random(id);
+                int[] live = new int[64];
+                int[] lengths = new int[64];
+                int liveCount = 0;
+                for (int op = 0; op < 20000 && failure.get() == null; op++) {
+                    if (liveCount == live.length || (liveCount > 0 && random.nextBoolean())) {
+                        int i = random.nextInt(liveCount);
+                        for (int w = live[i]; w < live[i] + lengths[i]; w++) {
+                            owner.set(w, 0);
+                        }
+                        memory.free(live[i]);
+                        liveCount--;
+                        live[i] = live[liveCount];
+                        lengths[i] = lengths[liveCount];
+                    } else {
+                        int length = 1 + random.nextInt(16);
+                        int address = memory.malloc(length);
+                        if (address < 0) {
+                            continue;
+                        }
+                        for (int w = address; w < address + length; w++) {
+                            if (!owner.compareAndSet(w, 0, id)) {
+                                failure.compareAndSet(null, "word " + w + " allocated to threads " + owner.get(w) + " and " + id);
+                            }
+                        }
+                        live[liveCount] = address;
+                        lengths[liveCount] = length;
+                        liveCount++;
+                    }
+                    if (op % 1000 == 0) {
+                        memory.defrag();
+                    }
+                }
+                while (liveCount > 0) {
+                    liveCount--;
+                    for (int w = live[liveCount]; w < live[liveCount] + lengths[liveCount]; w++) {
+                        owner.set(w, 0);
+                    }
+                    memory.free(live[liveCount]);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + ": " + failure.get());
+        }
+        check(name + ", after all threads freed their blocks", memory.toString(), new int[0], new int[0], 0);
+    }
+
+    private static void testDefragDaemon() {
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(1000, 2);
+        expectRejected(() -> memory.setDefragThresholds(-1, 0.5), "Daemon negative free-block threshold");
+        expectRejected(() -> memory.setDefragThresholds(8, 1.5), "Daemon fragmentation threshold above 1");
+        expectRejected(() -> memory.startDefragDaemon(0), "Daemon period of 0");
+        for (int i = 0; i < 100; i++) {
+            memory.malloc(10);
+        }
+        for (int i = 0; i < 100; i++) {
+            memory.free((i * 37 % 100) * 10);
+        }
+        assertEqual(100, memory.getFreeBlockCount(), "Daemon free blocks before it starts");
+
+        // Below both thresholds, the daemon leaves the stripes alone
+        memory.setDefragThresholds(100, 1);
+        memory.startDefragDaemon(1);
+        try {
+            memory.startDefragDaemon(1);
+            throw new AssertionError("Daemon started twice: no exception");
+        } catch (IllegalStateException expected) {
+        }
+        sleep(50);
+        assertEqual(100, memory.getFreeBlockCount(), "Daemon below its thresholds");
+        assertEqual(0, (int) memory.getDefragRuns(), "Daemon runs below its thresholds");
+
+        // Above a threshold, it coalesces each stripe into a single block
+        memory.setDefragThresholds(8, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (memory.getFreeBlockCount() > 2 && System.currentTimeMillis() < deadline) {
+            sleep(1);
+        }
+        assertString("(0 , 500) (500 , 500) \n", memory.toString(), "Daemon coalesces each stripe");
+        assertEqual(1, (memory.getDefragRuns() >= 2 && memory.getDefragNanos() > 0) ? 1 : 0, "Daemon statistics");
+        memory.stopDefragDaemon();
+        assertEqual(0, memory.isDefragDaemonRunning() ? 1 : 0, "Daemon stopped");
+        memory.stopDefragDaemon();
+
+        // A stripe in constant use: the runs end although every malloc and free changes the free
+        // list, and the free list stays shorter than without the daemon
+        int ops = 200000;
+        int withoutDaemon = churn(new ConcurrentMemorySpace(1 << 16, 1), ops);
+        ConcurrentMemorySpace busy = new ConcurrentMemorySpace(1 << 16, 1);
+        busy.setDefragThresholds(64, 1);
+        busy.startDefragDaemon(1);
+        int withDaemon = churn(busy, ops);
+        busy.stopDefragDaemon();
+        if (busy.getDefragRuns() == 0 || withDaemon >= withoutDaemon) {
+            throw new AssertionError("Daemon under churn: " + busy.getDefragRuns() + " runs, " + withDaemon
+                    + " free blocks, against " + withoutDaemon + " without the daemon");
+        }
+
+        // Threads that allocate and free while the daemon runs
+        ConcurrentMemorySpace shared = new ConcurrentMemorySpace(SIZE, 4);
+        shared.setDefragThresholds(4, 0.25);
+        shared.startDefragDaemon(1);
+        testConcurrentThreads("ConcurrentMemorySpace (defrag daemon)", shared);
+        shared.stopDefragDaemon();
+    }
+
+    /**
+     * Runs the given number of random mallocs and frees of short blocks on the given memory space,
+     * pausing every 1000 operations so that a background thread can run on a single processor,
+     * and returns the number of free blocks at the end.
+     */
+    private static int churn(ConcurrentMemorySpace memory, int ops) {
+        java.util.Random random = new java.util.Random(29);
+        int[] live = new int[1024];
+        int liveCount = 0;
+        for (int op = 0; op < ops; op++) {
+            if (liveCount == live.length || (liveCount > 0 && random.nextBoolean())) {
+                int i = random.nextInt(liveCount);
+                memory.free(live[i]);
+                live[i] = live[--liveCount];
+            } else {
+                int address = memory.malloc(1 + random.nextInt(16));
+                if (address >= 0) {
+                    live[liveCount++] = address;
+                }
+            }
+            if (op % 1000 == 999) {
+                sleep(1);
+            }
+        }
+        return memory.getFreeBlockCount();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void testCaching() {
+        CachingMemorySpace memory = new CachingMemorySpace(1000, 1);
+        assertEqual(0, memory.malloc(10), "Caching first block");
+        assertEqual(10, memory.malloc(10), "Caching second block");
+        memory.free(0);
+        assertEqual(1, memory.getCachedBlockCount(), "Caching short block cached");
+        memory.free(0);  // already free: ignored
+        assertEqual(1, memory.getCachedBlockCount(), "Caching double free ignored");
+        assertEqual(0, memory.malloc(10), "Caching reuses the cached block");
+        assertEqual(0, memory.getCachedBlockCount(), "Caching cache emptied");
+        assertEqual(20, memory.malloc(65), "Caching long block");
+        memory.free(20);
+        assertEqual(0, memory.getCachedBlockCount(), "Caching long block not cached");
+        memory.free(0);
+        memory.free(10);
+        assertString("(85 , 915) (20 , 65) (0 , 10) (10 , 10) \n", memory.toString(), "Caching toString flushes");
+
+        // A block of 2^30 words or more is never taken for a cached one
+        memory = new CachingMemorySpace(Integer.MAX_VALUE, 1);
+        assertEqual(0, memory.malloc(1 << 30), "Caching huge block");
+        memory.free(0);
+        memory.defrag();
+        assertEqual(0, memory.malloc(1 << 30), "Caching huge block freed");
+
+        // A full bin flushes its older half
+        memory = new CachingMemorySpace(100, 1);
+        for (int i = 0; i < 40; i++) {
+            assertEqual(i, memory.malloc(1), "Caching one-word block " + i);
+        }
+        for (int i = 0; i < 40; i++) {
+            memory.free(i);
+        }
+        assertEqual(24, memory.getCachedBlockCount(), "Caching bin after overflow");
+        memory.defrag();
+        assertEqual(0, memory.getCachedBlockCount(), "Caching defrag flushes");
+        assertString("(0 , 100) \n", memory.toString(), "Caching defrag coalesces the flushed blocks");
+
+        // Blocks cached by other threads are flushed before malloc fails
+        CachingMemorySpace shared = new CachingMemorySpace(100, 1);
+        Thread other = new Thread(() -> shared.free(shared.malloc(60)));
+        other.start();
+        try {
+            other.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        assertEqual(0, shared.malloc(60), "Caching flushes other threads' caches before failing");
+        assertEqual(1, shared.getCacheCount(), "Caching drops the cache of an ended thread");
+
+        // A thread that frees a block that another thread allocated, and frees it twice, and
+        // frees an address that begins no block
+        CachingMemorySpace crossed = new CachingMemorySpace(100, 1);
+        int address = crossed.malloc(10);
+        crossed.malloc(10);
+        java.util.concurrent.atomic.AtomicInteger cachedCount = new java.util.concurrent.atomic.AtomicInteger();
+        Thread freer = new Thread(() -> {
+            crossed.free(address);
+            crossed.free(address);
+            crossed.free(5);
+            cachedCount.set(crossed.getCachedBlockCount());
+        });
+        freer.start();
+        try {
+            freer.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        assertEqual(0, cachedCount.get(), "Caching block freed by another thread not cached there");
+        assertEqual(1, crossed.getCachedBlockCount(), "Caching block freed by another thread goes back to its owner");
+        assertEqual(address, crossed.malloc(10), "Caching owner reuses the block that another thread freed");
+        crossed.free(address);
+        assertString("(20 , 80) (0 , 10) \n(10 , 10) ", crossed.toString(), "Caching flushes the block that another thread freed");
+
+        // The blocks cached by a live, idle thread stay there until malloc fails or defrag runs
+        CachingMemorySpace idle = new CachingMemorySpace(100, 1);
+        java.util.concurrent.CountDownLatch cached = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch done = new java.util.concurrent.CountDownLatch(1);
+        Thread sleeper = new Thread(() -> {
+            idle.free(idle.malloc(60));
+            cached.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        sleeper.start();
+        try {
+            cached.await();
+            assertEqual(0, idle.malloc(60), "Caching flushes an idle thread's cache before failing");
+            assertEqual(2, idle.getCacheCount(), "Caching keeps the cache of an idle thread");
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            done.countDown();
+        }
+
+        // A block that an ended thread allocated can still be freed once its cache is dropped
+        CachingMemorySpace orphaned = new CachingMemorySpace(100, 1);
+        orphaned.malloc(10);
+        java.util.concurrent.atomic.AtomicInteger leftAddress = new java.util.concurrent.atomic.AtomicInteger();
+        Thread leaver = new Thread(() -> leftAddress.set(orphaned.malloc(20)));
+        leaver.start();
+        try {
+            leaver.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        orphaned.defrag();
+        assertEqual(1, orphaned.getCacheCount(), "Caching drops the cache of a thread that left a block in use");
+        orphaned.free(leftAddress.get());
+        assertString("(30 , 70) (10 , 20) \n(0 , 10) ", orphaned.toString(), "Caching frees the block of an ended thread");
+    }
+
+    private static void testLockFree() {
+        // Threads that keep the space full of one-word blocks do not fail to allocate one, although
+        // defrag claims blocks meanwhile (unless a claim stays pending through PENDING_RETRIES
+        // walks, which a thread that is descheduled at the wrong time can cause)
+        int words = 2000;
+        LockFreeMemorySpace memory = new LockFreeMemorySpace(words);
+        java.util.concurrent.atomic.AtomicInteger failures = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread defragger = new Thread(() -> {
+            while (!done.get()) {
+                memory.defrag();
+            }
+        });
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random(id);
+                int[] live = new int[words / threads.length];
+                int liveCount = 0;
+                for (int round = 0; round < 100; round++) {
+                    while (liveCount < live.length) {
+                        int address = memory.malloc(1);
+                        if (address < 0) {
+                            failures.incrementAndGet();
+                            continue;
+                        }
+                        live[liveCount++] = address;
+                    }
+                    for (int i = 0; i < live.length / 2; i++) {
+                        int j = random.nextInt(liveCount);
+                        memory.free(live[j]);
+                        live[j] = live[--liveCount];
+                    }
+                }
+            });
+        }
+        defragger.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            done.set(true);
+            defragger.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        // Over 100000 mallocs: a failure must stay a rare event, not the common case
+        if (failures.get() > 100) {
+            throw new AssertionError("LockFree malloc failed " + failures.get() + " times although the space was enough");
+        }
+    }
+
+    private static void testArena() {
+        ArenaMemorySpace memory = new ArenaMemorySpace(100, true);
+        int a = memory.malloc(3);
+        int b = memory.malloc(2);
+        memory.putLong(a, 0, Long.MIN_VALUE);
+        memory.putDouble(a, 1, Math.PI);
+        memory.putInt(a, 2, -7);
+        memory.putLong(b, 0, 42);
+        if (memory.getLong(a, 0) != Long.MIN_VALUE || memory.getDouble(a, 1) != Math.PI
+                || memory.getInt(a, 2) != -7 || memory.getLong(b, 0) != 42) {
+            throw new AssertionError("Arena: values read back differ from the values written");
+        }
+        assertEqual(42, (int) memory.getArena().getLong(b), "Arena absolute address");
+        expectRejected(() -> memory.putLong(a, 3, 1), "Arena debug write past the end of a block");
+        expectRejected(() -> memory.getLong(b, -1), "Arena debug negative offset");
+        expectRejected(() -> memory.getLong(a + 1, 0), "Arena debug address inside a block");
+        memory.free(a);
+        expectRejected(() -> memory.getLong(a, 0), "Arena debug use after free");
+
+        // Without debug checks, an access past the end of a block reaches its neighbour
+        ArenaMemorySpace unchecked = new ArenaMemorySpace(100);
+        int c = unchecked.malloc(1);
+        int d = unchecked.malloc(1);
+        unchecked.putLong(c, 1, 99);
+        assertEqual(99, (int) unchecked.getLong(d, 0), "Arena unchecked overflow");
+
+        // Bulk copies, including overlapping ranges in both directions
+        Arena arena = new Arena(10);
+        for (int i = 0; i < 10; i++) {
+            arena.putLong(i, i);
+        }
+        arena.copy(0, 2, 5);
+        arena.copy(4, 3, 4);
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            words.append(arena.getLong(i)).append(' ');
+        }
+        assertString("0 1 0 2 3 4 7 7 8 9 ", words.toString(), "Arena overlapping copies");
+        arena.fill(0, 10, 0);
+        assertEqual(0, (int) arena.getLong(9), "Arena fill");
+
+        // An address outside the arena never wraps around to a word within it
+        Arena small = new Arena(16);
+        expectOutOfBounds(() -> small.getLong((1 << 29) + 3), "Arena address whose byte offset wraps");
+        expectOutOfBounds(() -> small.putLong(16, 1), "Arena address past the end");
+        expectOutOfBounds(() -> small.getInt(-1), "Arena negative address");
+        expectOutOfBounds(() -> small.copy(10, 0, 7), "Arena copy past the end");
+        expectOutOfBounds(() -> small.fill(Integer.MAX_VALUE, 2, 0), "Arena fill past the end");
+        expectOutOfBounds(() -> unchecked.getLong(c, Integer.MAX_VALUE), "Arena unchecked offset that overflows");
+        expectOutOfBounds(() -> unchecked.putLong(c, 100, 1), "Arena unchecked offset past the end");
+        try {
+            new Arena(Arena.MAX_WORDS + 1);
+            throw new AssertionError("Arena too large: no exception");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void testPersistent() {
+        try {
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("persistent");
+            int[] files = { 0 };
+            test("PersistentMemorySpace", n -> {
+                try {
+                    return new PersistentMemorySpace(dir.resolve("contract" + files[0]++), n);
+                } catch (java.io.IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            java.nio.file.Path path = dir.resolve("heap");
+
+            // A crash (the memory space is dropped without close) keeps the blocks and the words
+            PersistentMemorySpace memory = new PersistentMemorySpace(path, SIZE);
+            int a = memory.malloc(10);
+            memory.getArena().putLong(a, 1234567890123L);
+            int b = memory.malloc(20);
+            memory.malloc(30);
+            memory.free(b);
+            memory.free(b);  // ignored: not logged
+            assertEqual(4, memory.getLogSize(), "Persistent log size");
+            String state = memory.toString();
+            memory = new PersistentMemorySpace(path, SIZE);
+            assertString(state, memory.toString(), "Persistent state after a crash");
+            if (memory.getArena().getLong(a) != 1234567890123L) {
+                throw new AssertionError("Persistent word after a crash");
+            }
+            assertEqual(0, memory.getLogSize(), "Persistent reopening starts a new log");
+
+            // Enough operations to fill the log several times
+            java.util.Random random = new java.util.Random(19);
+            int[] live = new int[SIZE];
+            int liveCount = 0;
+            for (int op = 0; op < 3 * PersistentMemorySpace.LOG_CAPACITY; op++) {
+                if (random.nextInt(100) == 0) {
+                    memory.defrag();
+                } else if (random.nextBoolean() && liveCount > 0) {
+                    int i = random.nextInt(liveCount);
+                    memory.free(live[i]);
+                    live[i] = live[--liveCount];
+                } else {
+                    int address = memory.malloc(1 + random.nextInt(16));
+                    if (address >= 0) {
+                        live[liveCount++] = address;
+                    }
+                }
+            }
+            state = memory.toString();
+            memory = new PersistentMemorySpace(path, SIZE);
+            assertString(state, memory.toString(), "Persistent state after checkpoints and a crash");
+            memory.close();
+            memory = new PersistentMemorySpace(path, SIZE);
+            assertString(state, memory.toString(), "Persistent state after close");
+
+            // The operation that finds the log full is in the next epoch's log, and not also in its snapshot
+            memory.close();
+            java.nio.file.Path full = dir.resolve("full");
+            memory = new PersistentMemorySpace(full, 1 << 20);
+            for (int i = 0; i < PersistentMemorySpace.LOG_CAPACITY; i++) {
+                memory.malloc(1);
+            }
+            memory.malloc(5);
+            assertEqual(1, memory.getLogSize(), "Persistent log after a full log");
+            state = memory.toString();
+            memory = new PersistentMemorySpace(full, 1 << 20);
+            assertString(state, memory.toString(), "Persistent state after crossing the log's capacity");
+            memory.close();
+            memory = new PersistentMemorySpace(path, SIZE);
+
+            // A record whose seal was not written was not completed
+            memory.malloc(7);
+            String completed = memory.toString();
+            memory.malloc(8);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(path,
+                    java.nio.file.StandardOpenOption.WRITE)) {
+                int lastSeal = PersistentMemorySpace.HEADER_SIZE + PersistentMemorySpace.RECORD_SIZE + 8;
+                channel.write(java.nio.ByteBuffer.allocate(8), lastSeal);
+            }
+            memory = new PersistentMemorySpace(path, SIZE);
+            assertString(completed, memory.toString(), "Persistent state after a torn record");
+
+            // A checkpoint that was interrupted before the header moved leaves a snapshot that is never read
+            memory.close();
+            state = memory.toString();
+            java.nio.ByteBuffer partial = java.nio.ByteBuffer.allocate(100);
+            partial.putLong(memory.getEpoch() + 1).putInt(1000);
+            java.nio.file.Files.write(dir.resolve("heap." + (memory.getEpoch() + 1) % 2), partial.array());
+            memory = new PersistentMemorySpace(path, SIZE);
+            assertString(state, memory.toString(), "Persistent state after an interrupted checkpoint");
+            memory.close();
+
+            try {
+                new PersistentMemorySpace(path, SIZE + 1);
+                throw new AssertionError("Persistent size mismatch: no exception");
+            } catch (IllegalArgumentException expected) {
+            }
+
+            // A corrupt snapshot fails the opening, which closes the file again
+            java.nio.file.Path snapshot = dir.resolve("heap." + memory.getEpoch() % 2);
+            byte[] saved = java.nio.file.Files.readAllBytes(snapshot);
+            byte[] corrupt = saved.clone();
+            corrupt[16] ^= 1;
+            java.nio.file.Files.write(snapshot, corrupt);
+            int openFiles = countOpenFiles();
+            try {
+                new PersistentMemorySpace(path, SIZE);
+                throw new AssertionError("Persistent corrupt snapshot: no exception");
+            } catch (java.io.IOException expected) {
+            }
+            assertEqual(openFiles, countOpenFiles(), "Persistent files left open by a failed opening");
+            java.nio.file.Files.write(snapshot, saved);
+            try (java.util.stream.Stream<java.nio.file.Path> paths = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path p : (Iterable<java.nio.file.Path>) paths::iterator) {
+                    java.nio.file.Files.delete(p);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the number of files that this process holds open, or 0 where that is not known. */
+    private static int countOpenFiles() throws java.io.IOException {
+        java.nio.file.Path fds = java.nio.file.Paths.get("/proc/self/fd");
+        if (!java.nio.file.Files.isDirectory(fds)) {
+            return 0;
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> paths = java.nio.file.Files.list(fds)) {
+            return (int) paths.count();
+        }
+    }
+
+    /** Checks that the given action throws an IndexOutOfBoundsException. */
+    private static void expectOutOfBounds(Runnable action, String message) {
+        try {
+            action.run();
+        } catch (IndexOutOfBoundsException expected) {
+            return;
+        }
+        throw new AssertionError(message + ": no exception");
+    }
+
+    /** Checks that the given action throws an IllegalArgumentException. */
+    private static void expectRejected(Runnable action, String message) {
+        try {
+            action.run();
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError(message + ": no exception");
+    }
+
+    private static void assertString(String expected, String actual, String message) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(message + ":\nExpected: " + expected + "\nActual: " + actual);
+        }
+    }
+
+    /** Checks the state printed by toString against the blocks that the test allocated. */
+    private static void check(String message, String state, int[] live, int[] lengths, int liveCount) {
+        String[] lines = state.split("\n", -1);
+        int[][] free = parse(lines[0]);
+        int[][] allocated = parse(lines.length > 1 ? lines[1] : "");
+        assertEqual(liveCount, allocated.length, message + ": number of allocated blocks");
+
+        java.util.Map<Integer, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < liveCount; i++) {
+            expected.put(live[i], lengths[i]);
+        }
+        for (int[] block : allocated) {
+            Integer length = expected.get(block[0]);
+            if (length == null || length != block[1]) {
+                throw new AssertionError(message + ": unexpected allocated block (" + block[0] + " , " + block[1] + ")");
+            }
+        }
+
+        int[][] all = new int[free.length + allocated.length][];
+        System.arraycopy(free, 0, all, 0, free.length);
+        System.arraycopy(allocated, 0, all, free.length, allocated.length);
+        java.util.Arrays.sort(all, (a, b) -> Integer.compare(a[0], b[0]));
+        int next = 0;
+        for (int[] block : all) {
+            if (block[0] != next || block[1] <= 0) {
+                throw new AssertionError(message + ": gap or overlap at address " + next + "\n" + state);
+            }
+            next += block[1];
+        }
+        assertEqual(SIZE, next, message + ": total size");
+    }
+
+    /** Parses a line of "(baseAddress , length) " entries. */
+    private static int[][] parse(String line) {
+        java.util.List<int[]> blocks = new java.util.ArrayList<>();
+        java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\((\\d+) , (\\d+)\\)").matcher(line);
+        while (m.find()) {
+            blocks.add(new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) });
+        }
+        return blocks.toArray(new int[0][]);
+    }
+
+    private static void assertEqual(int expected, int actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": Expected " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import java.util.function.Supplier;
+
+/* This program checks that every implementation of BlockList behaves like LinkedList, by
+ * replaying the same random sequence of positional inserts, removals (by index, by node and
+ * by block) and lookups on each of them, next to a LinkedList. After every call, the two lists
+ * must have the same toString, and the list's nodes must be linked consistently in both
+ * directions. Sorting and coalescing are checked at the end.
+ *
+ * UnrolledList has no nodes, so it is checked the same way with the block-based operations.
+ * PackedBlockList holds copies of the blocks, so it is compared with LinkedList by toString.
+ */
+public class TestBlockLists {
+
+    public static void main(String[] args) {
+        test("SkipList", () -> new SkipList());
+        testIterator("SkipList", new SkipList());
+        testUnrolledList();
+        testUnrolledIterator();
+        testPackedBlockList();
+        testLockFreeFreeList();
+
+        System.out.println("All tests completed successfully!");
+    }
+
+    private static void test(String name, Supplier<BlockList> factory) {
+        BlockList list = factory.get();
+        LinkedList expected = new LinkedList();
+        java.util.Random random = new java.util.Random(7);
+        for (int op = 0; op < 20000; op++) {
+            int size = expected.getSize();
+            // Grows the lists to a few hundred blocks, then keeps them around that size
+            int choice = random.nextInt(size < 300 ? 10 : 8);
+            if (choice < 4 || size == 0) {
+                int index = random.nextInt(size + 1);
+                MemoryBlock blk = new MemoryBlock(random.nextInt(1000) * 10, 10);
+                if (index == 0 && random.nextBoolean()) {
+                    list.addFirst(blk);
+                    expected.addFirst(blk);
+                } else if (index == size && random.nextBoolean()) {
+                    list.addLast(blk);
+                    expected.addLast(blk);
+                } else {
+                    list.add(index, blk);
+                    expected.add(index, blk);
+                }
+            } else if (choice < 5) {
+                int index = random.nextInt(size);
+                list.remove(index);
+                expected.remove(index);
+            } else if (choice < 6) {
+                int index = random.nextInt(size);
+                list.remove(list.getNode(index));
+                expected.remove(expected.getNode(index));
+            } else if (choice < 7) {
+                MemoryBlock blk = expected.getBlock(random.nextInt(size));
+                list.remove(blk);
+                expected.remove(blk);
+            } else {
+                int index = random.nextInt(size);
+                assertSame(expected.getBlock(index), list.getBlock(index), name + ", getBlock(" + index + ")");
+                assertSame(expected.getBlock(index), list.getNode(index).block, name + ", getNode(" + index + ")");
+                assertEqual(index, list.indexOf(list.getBlock(index)), name + ", indexOf");
+            }
+            assertEqual(expected.getSize(), list.getSize(), name + ", size after op " + op);
+            if (op % 100 == 0) {
+                check(name + ", op " + op, expected, list);
+            }
+        }
+        check(name, expected, list);
+
+        // A removed node is detached, so removing it again does nothing
+        Node node = list.getNode(list.getSize() / 2);
+        list.remove(node);
+        expected.remove(node.block);
+        list.remove(node);
+        check(name + ", removing a detached node", expected, list);
+
+        // A node of another list, even a middle one, is not removed
+        BlockList other = factory.get();
+        for (int i = 0; i < 3; i++) {
+            other.addLast(new MemoryBlock(i * 10, 10));
+        }
+        list.remove(other.getNode(1));
+        check(name + ", removing a node of another list", expected, list);
+        assertString("[(0 , 10), (10 , 10), (20 , 10)]", other.toString(), name + ", the other list");
+
+        list.sortByBaseAddress();
+        expected.sortByBaseAddress();
+        check(name + ", after sorting", expected, list);
+        // Coalescing changes the blocks, which the lists share, so the
+        // expected list is rebuilt from copies of the blocks
+        expected = new LinkedList();
+        for (Node n = list.getFirst(); n != null; n = n.next) {
+            expected.addLast(new MemoryBlock(n.block.baseAddress, n.block.length));
+        }
+        list.coalesce();
+        expected.coalesce();
+        check(name + ", after coalescing", expected, list);
+
+        while (list.getSize() > 0) {
+            list.remove(list.getFirst());
+        }
+        assertSame(null, list.getLast(), name + ", last node of an empty list");
+        assertString("[]", list.toString(), name + ", empty list");
+    }
+
+    private static void testIterator(String name, BlockList list) {
+        for (int i = 0; i < 10; i++) {
+            list.addLast(new MemoryBlock(i * 10, 10));
+        }
+        ListIterator itr = list.iterator();
+        while (itr.hasNext()) {
+            if (itr.next().baseAddress % 20 == 0) {
+                itr.remove();
+            }
+        }
+        assertString("[(10 , 10), (30 , 10), (50 , 10), (70 , 10), (90 , 10)]", list.toString(),
+                name + ", iterator remove");
+        assertSame(list.getNode(4), list.getLast(), name + ", last node after iterator remove");
+    }
+
+    private static void testUnrolledList() {
+        UnrolledList list = new UnrolledList();
+        LinkedList expected = new LinkedList();
+        java.util.Random random = new java.util.Random(7);
+        // Large enough to use many chunks, so splits and merges are exercised
+        for (int op = 0; op < 20000; op++) {
+            int size = expected.getSize();
+            int choice = random.nextInt(size < 1000 ? 10 : 8);
+            if (choice < 4 || size == 0) {
+                int index = random.nextInt(size + 1);
+                MemoryBlock blk = new MemoryBlock(random.nextInt(1000) * 10, 10);
+                if (index == 0 && random.nextBoolean()) {
+                    list.addFirst(blk);
+                    expected.addFirst(blk);
+                } else if (index == size && random.nextBoolean()) {
+                    list.addLast(blk);
+                    expected.addLast(blk);
+                } else {
+                    list.add(index, blk);
+                    expected.add(index, blk);
+                }
+            } else if (choice < 6) {
+                int index = random.nextInt(size);
+                list.remove(index);
+                expected.remove(index);
+            } else if (choice < 7) {
+                MemoryBlock blk = expected.getBlock(random.nextInt(size));
+                list.remove(blk);
+                expected.remove(blk);
+            } else {
+                int index = random.nextInt(size);
+                assertSame(expected.getBlock(index), list.getBlock(index), "UnrolledList, getBlock(" + index + ")");
+                assertEqual(index, list.indexOf(list.getBlock(index)), "UnrolledList, indexOf");
+            }
+            assertEqual(expected.getSize(), list.getSize(), "UnrolledList, size after op " + op);
+            if (op % 100 == 0) {
+                assertString(expected.toString(), list.toString(), "UnrolledList, op " + op);
+            }
+        }
+        assertString(expected.toString(), list.toString(), "UnrolledList");
+
+        list.sortByBaseAddress();
+        expected.sortByBaseAddress();
+        assertString(expected.toString(), list.toString(), "UnrolledList, after sorting");
+        expected = new LinkedList();
+        UnrolledList.Iterator itr = list.iterator();
+        while (itr.hasNext()) {
+            MemoryBlock blk = itr.next();
+            expected.addLast(new MemoryBlock(blk.baseAddress, blk.length));
+        }
+        list.coalesce();
+        expected.coalesce();
+        assertString(expected.toString(), list.toString(), "UnrolledList, after coalescing");
+        assertEqual(expected.getSize(), list.getSize(), "UnrolledList, size after coalescing");
+        // The packed list must still accept inserts at both ends
+        list.addLast(new MemoryBlock(20000, 10));
+        list.addFirst(new MemoryBlock(-10, 10));
+        assertEqual(expected.getSize() + 2, list.getSize(), "UnrolledList, adds after coalescing");
+        assertString("(20000 , 10)", list.getBlock(list.getSize() - 1).toString(), "UnrolledList, last block");
+
+        while (list.getSize() > 0) {
+            list.remove(list.getSize() / 2);
+        }
+        assertString("[]", list.toString(), "UnrolledList, empty list");
+    }
+
+    private static void testUnrolledIterator() {
+        UnrolledList list = new UnrolledList();
+        LinkedList expected = new LinkedList();
+        for (int i = 0; i < 1000; i++) {
+            MemoryBlock blk = new MemoryBlock(i * 10, 10);
+            list.addLast(blk);
+            if (i % 3 != 0) {
+                expected.addLast(blk);
+            }
+        }
+        // Removes a third of the blocks, so that chunks shrink and merge under the iterator
+        UnrolledList.Iterator itr = list.iterator();
+        int visited = 0;
+        while (itr.hasNext()) {
+            if (itr.next().baseAddress % 30 == 0) {
+                itr.remove();
+            }
+            visited++;
+        }
+        assertEqual(1000, visited, "UnrolledList, blocks visited by the iterator");
+        assertString(expected.toString(), list.toString(), "UnrolledList, iterator remove");
+        itr = list.iterator();
+        while (itr.hasNext()) {
+            itr.next();
+            itr.remove();
+        }
+        assertEqual(0, list.getSize(), "UnrolledList, iterator removes all");
+    }
+
+    private static void testPackedBlockList() {
+        PackedBlockList list = new PackedBlockList();
+        LinkedList expected = new LinkedList();
+        java.util.Random random = new java.util.Random(7);
+        for (int op = 0; op < 20000; op++) {
+            int size = expected.getSize();
+            int choice = random.nextInt(size < 1000 ? 10 : 8);
+            if (choice < 4 || size == 0) {
+                int index = random.nextInt(size + 1);
+                MemoryBlock blk = new MemoryBlock(random.nextInt(1000) * 10, 10);
+                if (index == size && random.nextBoolean()) {
+                    list.addLast(blk);
+                    expected.addLast(blk);
+                } else {
+                    list.add(index, blk);
+                    expected.add(index, blk);
+                }
+            } else if (choice < 7) {
+                int index = random.nextInt(size);
+                list.remove(index);
+                expected.remove(index);
+            } else {
+                int index = random.nextInt(size);
+                assertString(expected.getBlock(index).toString(), list.getBlock(index).toString(),
+                        "PackedBlockList, getBlock(" + index + ")");
+                int base = list.getBaseAddress(index);
+                assertEqual(base, list.getBlock(list.indexOf(base)).baseAddress, "PackedBlockList, indexOf");
+            }
+            assertEqual(expected.getSize(), list.getSize(), "PackedBlockList, size after op " + op);
+            if (op % 100 == 0) {
+                assertString(expected.toString(), list.toString(), "PackedBlockList, op " + op);
+            }
+        }
+        assertString(expected.toString(), list.toString(), "PackedBlockList");
+
+        // A view is a copy: changing it does not change the list
+        list.getBlock(0).length = 12345;
+        assertString(expected.getBlock(0).toString(), list.getBlock(0).toString(), "PackedBlockList, view");
+
+        // Sorting orders equal addresses by length, so the lengths are all equal here
+        list.sortByBaseAddress();
+        expected.sortByBaseAddress();
+        assertString(expected.toString(), list.toString(), "PackedBlockList, after sorting");
+        list.coalesce();
+        expected.coalesce();
+        assertString(expected.toString(), list.toString(), "PackedBlockList, after coalescing");
+
+        for (int i = 0; i < list.getSize(); i += 2) {
+            list.set(i, list.getBaseAddress(i), 0);
+        }
+        int marked = (list.getSize() + 1) / 2;
+        assertEqual(marked, list.removeEmpty(), "PackedBlockList, removeEmpty");
+        for (int i = 0; i < list.getSize(); i++) {
+            assertString(expected.getBlock(2 * i + 1).toString(), list.getBlock(i).toString(),
+                    "PackedBlockList, block " + i + " after removeEmpty");
+        }
+    }
+
+    /** Checks that the list has the expected contents, and is linked consistently. */
+    private static void testLockFreeFreeList() {
+        LockFreeFreeList list = new LockFreeFreeList();
+        list.insert(50, 10);
+        list.insert(0, 20);
+        list.insert(20, 10);
+        list.insert(80, 20);
+        assertString("(0 , 20) (20 , 10) (50 , 10) (80 , 20) ", list.toString(), "LockFreeFreeList, insertion order");
+        assertEqual(0, list.allocate(15), "LockFreeFreeList, first fit");
+        assertString("(15 , 5) (20 , 10) (50 , 10) (80 , 20) ", list.toString(), "LockFreeFreeList, split");
+        assertEqual(20, list.allocate(10), "LockFreeFreeList, exact fit");
+        assertEqual(-1, list.allocate(21), "LockFreeFreeList, no fit");
+        list.insert(20, 10);
+        list.insert(0, 15);
+        list.coalesce();
+        assertString("(0 , 30) (50 , 10) (80 , 20) ", list.toString(), "LockFreeFreeList, coalesce");
+        assertEqual(3, list.getSize(), "LockFreeFreeList, size");
+
+        // Threads that split and merge the same blocks at once must neither lose nor duplicate words
+        LockFreeFreeList shared = new LockFreeFreeList();
+        shared.insert(0, 10000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    int length = 1 + random.nextInt(8);
+                    int address = shared.allocate(length);
+                    if (address >= 0) {
+                        shared.insert(address, length);
+                    }
+                    if (i % 100 == 0) {
+                        shared.coalesce();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        shared.coalesce();
+        assertString("(0 , 10000) ", shared.toString(), "LockFreeFreeList, concurrent split and merge");
+    }
+
+    private static void check(String message, LinkedList expected, BlockList list) {
+        assertString(expected.toString(), list.toString(), message);
+        Node previous = null;
+        int i = 0;
+        for (Node n = list.getFirst(); n != null; n = n.next) {
+            if (n.prev != previous) {
+                throw new AssertionError(message + ": wrong prev link at index " + i);
+            }
+            previous = n;
+            i++;
+        }
+        assertEqual(list.getSize(), i, message + ", size");
+        assertSame(previous, list.getLast(), message + ", last node");
+        for (int index = 0; index < list.getSize(); index += 7) {
+            assertString(expected.getBlock(index).toString(), list.getBlock(index).toString(),
+                    message + ", getBlock(" + index + ")");
+        }
+    }
+
+    private static void assertSame(Object expected, Object actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": Expected " + expected + " but got " + actual);
+        }
+    }
+
+    private static void assertEqual(int expected, int actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": Expected " + expected + " but got " + actual);
+        }
+    }
+
+    private static void assertString(String expected, String actual, String message) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(message + ":\nExpected: " + expected + "\nActual: " + actual);
+        }
+    }
+}
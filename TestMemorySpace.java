@@ -12,6 +12,21 @@ public class TestMemorySpace {
         testFree();
         testDefrag();
         testComplexScenario();
+        testFreeKeepsAllocatedOrder();
+        testFreeManyBlocks();
+        testDefragSortsFreeList();
+        testAddressOrderedFree();
+        testPlacementPolicies();
+        testNextFitRover();
+        testDoublyLinkedList();
+        testMoveNodes();
+        testNodePool();
+        testNodePoolChurn();
+        testSteadyStateAllocatesNothing();
+        testCompact();
+        testHandles();
+        testDefragStep();
+        testDefragOnFailure();
 
         System.out.println("All tests completed successfully!");
     }
@@ -98,6 +113,641 @@ public class TestMemorySpace {
         assertString(expected, memory.toString(), "Complex scenario state");
     }
 
+    private static void testFreeKeepsAllocatedOrder() {
+        MemorySpace memory = new MemorySpace(100);
+        for (int i = 0; i < 5; i++) {
+            memory.malloc(10);
+        }
+        memory.free(20); // middle
+        memory.free(0);  // first
+        memory.free(40); // last
+        memory.free(55); // not a base address: ignored
+
+        String expected = "(50 , 50) (20 , 10) (0 , 10) (40 , 10) \n(10 , 10) (30 , 10) ";
+        assertExact(expected, memory.toString(), "Allocated order after free");
+
+        int addr = memory.malloc(5);
+        assertEqual(50, addr, "Allocation after free");
+        memory.free(30);
+        memory.free(addr);
+        expected = "(55 , 45) (20 , 10) (0 , 10) (40 , 10) (30 , 10) (50 , 5) \n(10 , 10) ";
+        assertExact(expected, memory.toString(), "Free after re-allocation");
+    }
+
+    private static void testFreeManyBlocks() {
+        int n = 5000;
+        MemorySpace memory = new MemorySpace(n);
+        for (int i = 0; i < n; i++) {
+            memory.malloc(1);
+        }
+        java.util.Random random = new java.util.Random(42);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        for (int i = 0; i < n; i++) {
+            memory.free(order[i]);
+        }
+        memory.defrag();
+        assertExact("(0 , " + n + ") \n", memory.toString(), "Free all blocks in random order");
+    }
+
+    private static void testDefragSortsFreeList() {
+        MemorySpace memory = new MemorySpace(100);
+        for (int i = 0; i < 10; i++) {
+            memory.malloc(10);
+        }
+        // Frees the blocks at 70, 10, 50, 80, 30, 60 (in this order)
+        int[] order = { 70, 10, 50, 80, 30, 60 };
+        for (int addr : order) {
+            memory.free(addr);
+        }
+        memory.defrag();
+        String expected = "(10 , 10) (30 , 10) (50 , 40) \n(0 , 10) (20 , 10) (40 , 10) (90 , 10) ";
+        assertExact(expected, memory.toString(), "Defrag sorts and coalesces");
+
+        // The free list's last node must be correct after sorting
+        memory.free(90);
+        memory.defrag();
+        expected = "(10 , 10) (30 , 10) (50 , 50) \n(0 , 10) (20 , 10) (40 , 10) ";
+        assertExact(expected, memory.toString(), "Defrag after appending to the sorted list");
+    }
+
+    private static void testAddressOrderedFree() {
+        MemorySpace memory = new MemorySpace(100, true);
+        for (int i = 0; i < 9; i++) {
+            memory.malloc(10);
+        }
+        memory.free(50); // no free neighbours
+        memory.free(10);
+        String expected = "(10 , 10) (50 , 10) (90 , 10) \n(0 , 10) (20 , 10) (30 , 10) (40 , 10) (60 , 10) (70 , 10) (80 , 10) ";
+        assertExact(expected, memory.toString(), "Address-ordered insertion");
+
+        memory.free(80); // merges with the next free block
+        memory.free(40); // merges with the previous free block
+        memory.free(0);  // merges with the next free block, at the front of the list
+        expected = "(0 , 20) (40 , 20) (80 , 20) \n(20 , 10) (30 , 10) (60 , 10) (70 , 10) ";
+        assertExact(expected, memory.toString(), "Address-ordered coalescing");
+
+        memory.free(30); // merges with both neighbours
+        expected = "(0 , 20) (30 , 30) (80 , 20) \n(20 , 10) (60 , 10) (70 , 10) ";
+        assertExact(expected, memory.toString(), "Address-ordered coalescing of both neighbours");
+
+        memory.defrag();
+        assertExact(expected, memory.toString(), "Defrag in address-ordered mode");
+
+        assertEqual(30, memory.malloc(30), "Exact fit in address-ordered mode");
+        memory.free(20);
+        memory.free(60);
+        memory.free(70);
+        memory.free(30);
+        assertExact("(0 , 100) \n", memory.toString(), "Address-ordered free of all blocks");
+    }
+
+    /** Builds a memory space whose free list is (0 , 30) (40 , 10) (60 , 20) (90 , 10), in this order. */
+    private static MemorySpace holes(AllocationPolicy policy) {
+        MemorySpace memory = new MemorySpace(100, policy, true);
+        int[] lengths = { 30, 10, 10, 10, 20, 10, 10 };
+        for (int length : lengths) {
+            memory.malloc(length);
+        }
+        memory.free(0);
+        memory.free(40);
+        memory.free(60);
+        memory.free(90);
+        return memory;
+    }
+
+    private static void testPlacementPolicies() {
+        MemorySpace first = holes(AllocationPolicy.FIRST_FIT);
+        assertEqual(0, first.malloc(10), "First-fit");
+        MemorySpace best = holes(AllocationPolicy.BEST_FIT);
+        assertEqual(40, best.malloc(10), "Best-fit exact");
+        assertEqual(60, best.malloc(15), "Best-fit");
+        assertEqual(-1, best.malloc(31), "Best-fit failure");
+        MemorySpace worst = holes(AllocationPolicy.WORST_FIT);
+        assertEqual(0, worst.malloc(5), "Worst-fit");
+        assertEqual(5, worst.malloc(25), "Worst-fit, second");
+        assertEqual(60, worst.malloc(20), "Worst-fit, third");
+        assertEqual(-1, worst.malloc(11), "Worst-fit failure");
+    }
+
+    private static void testNextFitRover() {
+        MemorySpace memory = holes(AllocationPolicy.NEXT_FIT);
+        assertEqual(0, memory.malloc(10), "Next-fit, first scan");
+        assertEqual(10, memory.malloc(10), "Next-fit, same block");
+        assertEqual(20, memory.malloc(10), "Next-fit, exact fit removes the rover");
+        assertEqual(40, memory.malloc(10), "Next-fit, rover moved to the next block");
+        assertEqual(60, memory.malloc(5), "Next-fit, continues");
+        assertEqual(65, memory.malloc(10), "Next-fit, rest of the same block");
+        assertEqual(90, memory.malloc(10), "Next-fit, skips a small block");
+        assertEqual(75, memory.malloc(5), "Next-fit, wraps around");
+        assertEqual(-1, memory.malloc(1), "Next-fit, full");
+        // Freeing coalesces (and may unlink) free nodes; the rover must stay usable
+        memory.free(40);
+        memory.free(20);
+        memory.free(30);
+        assertEqual(20, memory.malloc(30), "Next-fit after coalescing");
+    }
+
+    private static void testDoublyLinkedList() {
+        LinkedList list = new LinkedList();
+        for (int i = 0; i < 6; i++) {
+            list.addLast(new MemoryBlock(50 - i * 10, 10));
+        }
+        list.addFirst(new MemoryBlock(70, 5));
+        list.add(3, new MemoryBlock(90, 5));
+        assertLinks(list, "Doubly linked after adds");
+
+        // O(1) removals: the first, a middle and the last node
+        list.remove(list.getFirst());
+        list.remove(list.getNode(3));
+        list.remove(list.getLast());
+        assertLinks(list, "Doubly linked after removals");
+        assertExact("[(50 , 10), (40 , 10), (90 , 5), (20 , 10), (10 , 10)]", list.toString(),
+                "Removals by node");
+
+        // A removed node is detached, so removing it again does nothing
+        Node removed = list.getNode(1);
+        list.remove(removed);
+        list.remove(removed);
+        assertEqual(4, list.getSize(), "Removing a detached node");
+
+        // A node of another list is not removed, not even a middle one
+        LinkedList other = new LinkedList();
+        for (int i = 0; i < 3; i++) {
+            other.addLast(new MemoryBlock(100 + i * 10, 10));
+        }
+        list.remove(other.getNode(1));
+        list.remove(other.getFirst());
+        assertEqual(4, list.getSize(), "Removing a node of another list");
+        assertEqual(3, other.getSize(), "The other list keeps its nodes");
+        assertLinks(other, "Doubly linked after removing its nodes from another list");
+
+        list.sortByBaseAddress();
+        assertLinks(list, "Doubly linked after sorting");
+        list.coalesce();
+        assertLinks(list, "Doubly linked after coalescing");
+        assertExact("[(10 , 20), (50 , 10), (90 , 5)]", list.toString(), "Sort and coalesce");
+    }
+
+    private static void testMoveNodes() {
+        LinkedList from = new LinkedList();
+        LinkedList to = new LinkedList();
+        for (int i = 0; i < 3; i++) {
+            from.addLast(new MemoryBlock(i * 10, 10));
+        }
+        Node moved = from.getFirst();
+        from.moveFirstTo(to);
+        from.moveFirstTo(to);
+        if (to.getFirst() != moved) {
+            throw new AssertionError("Moving a node keeps the node");
+        }
+        assertLinks(from, "Doubly linked after moving nodes out");
+        assertLinks(to, "Doubly linked after moving nodes in");
+        assertExact("[(0 , 10), (10 , 10)]", to.toString(), "Moved nodes");
+
+        // Appending a whole list relinks its nodes, and empties it
+        Node last = from.getLast();
+        to.appendAll(from);
+        to.appendAll(new LinkedList());
+        if (to.getLast() != last) {
+            throw new AssertionError("Appending a list keeps its nodes");
+        }
+        assertEqual(0, from.getSize(), "Appended list is empty");
+        assertExact("[]", from.toString(), "Appended list has no nodes");
+        assertLinks(to, "Doubly linked after appending a list");
+        assertExact("[(0 , 10), (10 , 10), (20 , 10)]", to.toString(), "Appended nodes");
+        from.appendAll(to);
+        assertExact("[(0 , 10), (10 , 10), (20 , 10)]", from.toString(), "Appending to an empty list");
+        assertLinks(from, "Doubly linked after appending to an empty list");
+    }
+
+    private static void testNodePool() {
+        LinkedList list = new LinkedList(4);
+        for (int i = 0; i < 6; i++) {
+            list.addLast(new MemoryBlock(i * 10, 10));
+        }
+        assertEqual(6, (int) list.getPoolMisses(), "Node pool, misses while empty");
+        Node removed = list.getFirst();
+        list.remove(removed);
+        list.remove(1);
+        list.remove(list.getFirst().block);
+        assertEqual(3, list.getPoolSize(), "Node pool, removed nodes are pooled");
+        list.addFirst(new MemoryBlock(0, 5));
+        assertEqual(1, (int) list.getPoolHits(), "Node pool, hit");
+        assertEqual(2, list.getPoolSize(), "Node pool, node taken");
+        assertExact("[(0 , 5), (30 , 10), (40 , 10), (50 , 10)]", list.toString(), "Node pool, contents");
+        assertLinks(list, "Node pool, links of reused nodes");
+
+        // The pool is bounded
+        while (list.getSize() > 0) {
+            list.remove(list.getLast());
+        }
+        assertEqual(4, list.getPoolSize(), "Node pool, limit");
+
+        // The first trim only records the low-water mark; the second releases the idle nodes
+        list.trimPool();
+        assertEqual(4, list.getPoolSize(), "Node pool, first trim");
+        list.addLast(new MemoryBlock(0, 10));
+        list.trimPool();
+        assertEqual(0, list.getPoolSize(), "Node pool, idle nodes released");
+        list.remove(0);
+        list.addLast(new MemoryBlock(0, 10));
+        list.trimPool();
+        assertEqual(0, list.getPoolSize(), "Node pool, nothing idle to keep");
+
+        // Pooling is off by default
+        LinkedList plain = new LinkedList();
+        plain.addLast(new MemoryBlock(0, 10));
+        plain.remove(0);
+        plain.addLast(new MemoryBlock(0, 10));
+        assertEqual(0, plain.getPoolSize(), "No node pool");
+        assertEqual(0, (int) (plain.getPoolHits() + plain.getPoolMisses()), "No node pool counters");
+    }
+
+    private static void testNodePoolChurn() {
+        // Ten blocks fill the memory space, so every malloc takes the freed block (an exact fit)
+        MemorySpace memory = new MemorySpace(100);
+        int[] addresses = new int[10];
+        for (int i = 0; i < 10; i++) {
+            addresses[i] = memory.malloc(10);
+        }
+        // Steady churn: free a block and reallocate it
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                memory.free(addresses[i]);
+                addresses[i] = memory.malloc(10);
+            }
+        }
+        long misses = memory.getNodePoolMisses();
+        long hits = memory.getNodePoolHits();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 10; i++) {
+                memory.free(addresses[i]);
+                addresses[i] = memory.malloc(10);
+            }
+        }
+        assertEqual((int) misses, (int) memory.getNodePoolMisses(), "Node pool churn, no new nodes");
+        assertEqual((int) hits + 2000, (int) memory.getNodePoolHits(), "Node pool churn, every node reused");
+    }
+
+    private static void testSteadyStateAllocatesNothing() {
+        for (AllocationPolicy policy : AllocationPolicy.values()) {
+            assertNoGarbage(new MemorySpace(1000, policy), "Steady state, " + policy);
+        }
+        assertNoGarbage(new MemorySpace(1000, true), "Steady state, address-ordered");
+    }
+
+    private static void testCompact() {
+        MemorySpace memory = new MemorySpace(100);
+        int a = memory.malloc(10);
+        int b = memory.malloc(20);
+        int c = memory.malloc(30);
+        memory.malloc(5);
+        memory.free(a);
+        memory.free(c);
+        assertExact("(65 , 35) (0 , 10) (30 , 30) \n(10 , 20) (60 , 5) ", memory.toString(), "before compact");
+        memory.compact(null);
+        assertExact("(25 , 75) \n(0 , 20) (20 , 5) ", memory.toString(), "compact slides the allocated blocks down");
+        memory.free(20);
+        assertExact("(25 , 75) (20 , 5) \n(0 , 20) ", memory.toString(), "free after compact finds the moved block");
+        assertEqual(25, memory.malloc(75), "malloc after compact");
+        memory.compact(null);
+        assertExact("(95 , 5) \n(0 , 20) (20 , 75) ", memory.toString(), "compact closes the last hole");
+
+        // A memory space with a base address compacts down to its base address
+        memory = new MemorySpace(1000, 100, AllocationPolicy.FIRST_FIT, false);
+        memory.malloc(10);
+        memory.malloc(10);
+        memory.free(1000);
+        memory.compact(null);
+        assertExact("(1010 , 90) \n(1000 , 10) ", memory.toString(), "compact with a base address");
+
+        // A full memory space has no free block after compact
+        memory = new MemorySpace(10);
+        memory.malloc(10);
+        memory.compact(null);
+        assertExact("\n(0 , 10) ", memory.toString(), "compact of a full memory space");
+    }
+
+    private static void testDefragOnFailure() {
+        MemorySpace memory = new MemorySpace(100);
+        for (int i = 0; i < 10; i++) {
+            memory.malloc(10);
+        }
+        memory.free(0);
+        memory.free(20);
+        memory.free(40);
+        memory.free(30);
+        assertEqual(-1, memory.malloc(30), "Without defrag-on-failure, malloc does not coalesce");
+        assertEqual(0, (int) memory.getFailureDefragCount(), "Without defrag-on-failure, no coalesce");
+
+        memory.setDefragOnFailure(true);
+        assertEqual(-1, memory.malloc(50), "Defrag-on-failure, more than the free size");
+        assertEqual(0, (int) memory.getFailureDefragCount(), "Defrag-on-failure skips a coalesce that cannot help");
+        assertEqual(-1, memory.malloc(40), "Defrag-on-failure, no adjacent free blocks large enough");
+        assertEqual(1, (int) memory.getFailureDefragCount(), "Defrag-on-failure coalesces a dirty free list");
+        assertExact("(0 , 10) (20 , 30) \n(10 , 10) (50 , 10) (60 , 10) (70 , 10) (80 , 10) (90 , 10) ",
+                memory.toString(), "Defrag-on-failure state after the coalesce");
+        assertEqual(-1, memory.malloc(40), "Defrag-on-failure, coalesced free list");
+        assertEqual(1, (int) memory.getFailureDefragCount(), "Defrag-on-failure skips a clean free list");
+
+        memory.free(10);
+        assertEqual(0, memory.malloc(40), "Defrag-on-failure retries after the coalesce");
+        assertEqual(2, (int) memory.getFailureDefragCount(), "Defrag-on-failure coalesces after a free");
+        assertEqual(10, memory.getFreeSize(), "Defrag-on-failure free size");
+
+        // The coalesce stops as soon as a block of the requested length forms
+        memory = new MemorySpace(100);
+        memory.setDefragOnFailure(true);
+        for (int i = 0; i < 10; i++) {
+            memory.malloc(10);
+        }
+        memory.free(10);
+        memory.free(0);
+        memory.free(60);
+        memory.free(50);
+        assertEqual(0, memory.malloc(20), "Defrag-on-failure allocates from the merged block");
+        assertExact("(60 , 10) (50 , 10) \n(20 , 10) (30 , 10) (40 , 10) (70 , 10) (80 , 10) (90 , 10) (0 , 20) ",
+                memory.toString(), "Defrag-on-failure stops at the first block that is long enough");
+        assertEqual(50, memory.malloc(20), "Defrag-on-failure resumes on a free list that is still dirty");
+        assertEqual(2, (int) memory.getFailureDefragCount(), "Defrag-on-failure count after a partial coalesce");
+
+        // A full memory space never coalesces
+        memory = new MemorySpace(100);
+        memory.setDefragOnFailure(true);
+        memory.malloc(60);
+        memory.malloc(40);
+        memory.free(0);
+        memory.malloc(60);
+        assertEqual(-1, memory.malloc(1), "Defrag-on-failure, full memory space");
+        assertEqual(0, (int) memory.getFailureDefragCount(), "Defrag-on-failure, full memory space does not coalesce");
+    }
+
+    private static void testDefragStep() {
+        MemorySpace memory = new MemorySpace(100);
+        for (int i = 0; i < 10; i++) {
+            memory.malloc(10);
+        }
+        int[] order = { 30, 10, 90, 0, 50, 20, 70, 40, 80, 60 };
+        for (int address : order) {
+            memory.free(address);
+        }
+        int calls = 1;
+        while (!memory.defragStep(3)) {
+            calls++;
+            if (calls > 100) {
+                throw new AssertionError("defragStep does not converge");
+            }
+        }
+        if (calls < 4) {
+            throw new AssertionError("defragStep did more than 3 nodes of work per call: " + calls + " calls");
+        }
+        assertExact("(0 , 100) \n", memory.toString(), "defragStep coalesces the whole free list");
+        assertEqual(1, memory.getFreeBlockCount(), "defragStep leaves a single free block");
+        if (!memory.defragStep(1)) {
+            throw new AssertionError("defragStep after convergence, with no change");
+        }
+        try {
+            memory.defragStep(0);
+            throw new AssertionError("defragStep(0): no exception");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // A time limit of 0 stops after 64 nodes
+        memory = new MemorySpace(1000);
+        for (int i = 0; i < 100; i++) {
+            memory.malloc(10);
+        }
+        for (int i = 0; i < 100; i++) {
+            memory.free((i * 37 % 100) * 10);
+        }
+        if (memory.defragStep(Integer.MAX_VALUE, 0)) {
+            throw new AssertionError("defragStep ignores its time limit");
+        }
+
+        // ... also while merging, where every node merged counts twice, so the count of nodes
+        // skips over 63
+        memory = new MemorySpace(1000);
+        for (int i = 0; i < 100; i++) {
+            memory.malloc(10);
+        }
+        memory.free(980);
+        memory.free(990);
+        for (int i = 97; i >= 0; i--) {
+            memory.free(i * 10);
+        }
+        memory.defragStep(100);  // indexes the 100 free nodes
+        if (memory.defragStep(Integer.MAX_VALUE, 0)) {
+            throw new AssertionError("defragStep ignores its time limit while merging");
+        }
+        if (memory.getFreeBlockCount() < 50) {
+            throw new AssertionError("defragStep merged " + (100 - memory.getFreeBlockCount()) + " blocks with a time limit of 0");
+        }
+
+        // Interleaved with mallocs and frees, and converging once they stop
+        for (AllocationPolicy policy : AllocationPolicy.values()) {
+            memory = new MemorySpace(4096, policy);
+            java.util.Random random = new java.util.Random(23);
+            int[] live = new int[4096];
+            int liveCount = 0;
+            for (int op = 0; op < 20000; op++) {
+                if (liveCount > 0 && random.nextBoolean()) {
+                    int i = random.nextInt(liveCount);
+                    memory.free(live[i]);
+                    live[i] = live[--liveCount];
+                } else {
+                    int address = memory.malloc(1 + random.nextInt(32));
+                    if (address >= 0) {
+                        live[liveCount++] = address;
+                    }
+                }
+                memory.defragStep(8);
+            }
+            calls = 0;
+            while (!memory.defragStep(8)) {
+                calls++;
+                if (calls > 100000) {
+                    throw new AssertionError(policy + ": defragStep does not converge");
+                }
+            }
+            assertCoalesced(memory, 4096, policy + ": defragStep");
+        }
+        if (!new MemorySpace(100, true).defragStep(1)) {
+            throw new AssertionError("defragStep in address-ordered mode");
+        }
+    }
+
+    /** Checks that no two free blocks are adjacent, and that the blocks cover the memory space. */
+    private static void assertCoalesced(MemorySpace memory, int size, String message) {
+        String[] lines = memory.toString().split("\n", -1);
+        java.util.List<int[]> free = parse(lines[0]);
+        java.util.List<int[]> all = new java.util.ArrayList<>(free);
+        all.addAll(parse(lines[1]));
+        free.sort((a, b) -> Integer.compare(a[0], b[0]));
+        for (int i = 1; i < free.size(); i++) {
+            if (free.get(i - 1)[0] + free.get(i - 1)[1] == free.get(i)[0]) {
+                throw new AssertionError(message + ": adjacent free blocks at " + free.get(i)[0]);
+            }
+        }
+        all.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int next = 0;
+        for (int[] block : all) {
+            assertEqual(next, block[0], message + ": block address");
+            next += block[1];
+        }
+        assertEqual(size, next, message + ": total size");
+    }
+
+    /** Parses a line of "(baseAddress , length) " entries. */
+    private static java.util.List<int[]> parse(String line) {
+        java.util.List<int[]> blocks = new java.util.ArrayList<>();
+        java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\((\\d+) , (\\d+)\\)").matcher(line);
+        while (m.find()) {
+            blocks.add(new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) });
+        }
+        return blocks;
+    }
+
+    private static void testHandles() {
+        HandleMemorySpace memory = new HandleMemorySpace(100, true);
+        int[] handles = new int[10];
+        for (int i = 0; i < 10; i++) {
+            handles[i] = memory.allocate(10);
+            for (int w = 0; w < 10; w++) {
+                memory.putLong(handles[i], w, i * 100 + w);
+            }
+        }
+        assertEqual(-1, memory.allocate(1), "handles: full");
+        for (int i = 0; i < 10; i += 2) {
+            memory.release(handles[i]);
+        }
+        memory.defrag();
+        assertEqual(-1, memory.allocate(11), "handles: holes between allocated blocks");
+        memory.compact();
+        assertEqual(1, memory.getFreeBlockCount(), "handles: one free block after compact");
+        for (int i = 1; i < 10; i += 2) {
+            assertEqual((i / 2) * 10, memory.getAddress(handles[i]), "handles: address of handle " + i);
+            for (int w = 0; w < 10; w++) {
+                if (memory.getLong(handles[i], w) != i * 100 + w) {
+                    throw new AssertionError("handles: word " + w + " of handle " + i + " after compact");
+                }
+            }
+        }
+        int big = memory.allocate(50);
+        assertEqual(50, memory.getAddress(big), "handles: the holes are reclaimed");
+        assertEqual(50, memory.getLength(big), "handles: length");
+        try {
+            memory.getLong(handles[0], 0);
+            throw new AssertionError("handles: released handle: no exception");
+        } catch (IllegalArgumentException expected) {
+            // handles[0] was released, and not reused (released handles are reused last in, first out)
+        }
+        try {
+            memory.putLong(big, 50, 0);
+            throw new AssertionError("handles: offset past the end: no exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new HandleMemorySpace(10).getLong(0, 0);
+            throw new AssertionError("handles: no arena: no exception");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * Runs a steady malloc/free cycle on the given memory space, filled with 100 blocks of
+     * 10 words: a batch of random blocks is freed, and as many blocks are allocated again.
+     * Once the cycle has warmed up the pools, it must allocate zero bytes on this thread.
+     * The JIT's own transitions (such as deoptimization) may allocate a few hundred bytes on
+     * the thread now and then, so the rounds are measured separately, and the round that
+     * allocated the least must have allocated nothing.
+     */
+    private static void assertNoGarbage(MemorySpace memory, String message) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        // The random choices are prepared in advance, so the loop itself allocates nothing
+        java.util.Random random = new java.util.Random(3);
+        int[] picks = new int[4096];
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = random.nextInt(100);
+        }
+        int[] live = new int[100];
+        for (int i = 0; i < live.length; i++) {
+            live[i] = memory.malloc(10);
+        }
+        int[] batch = new int[8];
+        // Every round after the warm-up is measured on its own, and the test takes the round that
+        // allocated the least: the JIT's deoptimizations may allocate a few hundred bytes on this
+        // thread in some rounds, but an allocation in malloc or free would show up in all of them
+        long fewest = Long.MAX_VALUE;
+        int fewestOps = 0;
+        threads.getCurrentThreadAllocatedBytes();  // the first call may allocate
+        for (int round = 0; round < 40; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            int ops = 0;
+            for (int i = 0; i + batch.length <= picks.length; i += batch.length) {
+                int n = 0;
+                for (int j = 0; j < batch.length; j++) {
+                    int k = picks[(i + j + round) % picks.length];
+                    if (live[k] >= 0) {
+                        memory.free(live[k]);
+                        live[k] = -1;
+                        batch[n++] = k;
+                    }
+                }
+                for (int j = 0; j < n; j++) {
+                    live[batch[j]] = memory.malloc(10);
+                }
+                if ((i & 1023) == 0) {
+                    memory.defrag();
+                }
+                ops += 2 * n;
+            }
+            long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+            if (round >= 20 && bytes < fewest) {
+                fewest = bytes;
+                fewestOps = ops;
+            }
+        }
+        if (fewest != 0) {
+            throw new AssertionError(message + ": " + fewest + " bytes allocated in " + fewestOps
+                    + " operations (" + (double) fewest / fewestOps + " bytes per operation)");
+        }
+        for (int k : live) {
+            assertEqual(1, (k >= 0) ? 1 : 0, message + ": every malloc succeeds");
+        }
+    }
+
+    /** Checks that walking the list backwards visits the nodes of the forward walk, in reverse. */
+    private static void assertLinks(LinkedList list, String message) {
+        Node[] forward = new Node[list.getSize()];
+        int i = 0;
+        for (Node n = list.getFirst(); n != null; n = n.next) {
+            if (n.prev != ((i == 0) ? null : forward[i - 1])) {
+                throw new AssertionError(message + ": wrong prev link at index " + i);
+            }
+            forward[i++] = n;
+        }
+        assertEqual(list.getSize(), i, message + ", size");
+        if (list.getLast() != ((i == 0) ? null : forward[i - 1])) {
+            throw new AssertionError(message + ": wrong last node");
+        }
+    }
+
+    private static void assertExact(String expected, String actual, String message) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(message + ":\nExpected: " + expected + "\nActual: " + actual);
+        }
+    }
+
     private static void assertEqual(int expected, int actual, String message) {
         if (expected != actual) {
             throw new AssertionError(message + ": Expected " + expected + " but got " + actual);
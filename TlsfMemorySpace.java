@@ -0,0 +1,287 @@
+/**
+ * Represents a managed memory space that uses Two-Level Segregated Fit (TLSF), whose malloc
+ * and free take O(1) time, no matter how many free blocks there are.
+ * <p>
+ * The free blocks are kept in bins. The first level divides lengths by powers of two, and the
+ * second level divides every power-of-two range into 16 equal bins (lengths below 16 get a bin
+ * each). A bitmap of the first level records which ranges have a non-empty bin, and a bitmap per
+ * range records which of its bins are non-empty, so a bin is found with two bit operations.
+ * <p>
+ * malloc rounds the requested length up to the next bin boundary, so that every block of the
+ * chosen bin is long enough, takes the first block of the first non-empty bin from there, and
+ * returns the rest of the block to its bin. Due to the rounding, malloc may fail although a free
+ * block of the request's own bin is long enough (this is the price of never scanning a bin).
+ * free merges the freed block with its free neighbours, which its record links to,
+ * so the free blocks are always coalesced, and defrag has nothing to do.
+ * <p>
+ * Every block, free or allocated, has a record, and the records are held in int arrays indexed
+ * by the base address of their block, which are allocated once by the constructor, since a
+ * memory space of maxSize words holds at most maxSize blocks. A record holds the length of its
+ * block (negated if the block is free, and 0 at an address that begins no block), the base
+ * address of the block just before it in the memory space, which replaces C's boundary tags (the
+ * block just after it begins where it ends), and two links: those of its bin if the block is
+ * free, and those of the allocated blocks, in allocation order, otherwise. free reaches the
+ * record of an allocated block directly through its base address. So malloc and free take O(1)
+ * time in the worst case, never grow or rehash a structure, and allocate no objects. As there is
+ * no storage behind the addresses, the records cannot live in the blocks, as they do in C; the
+ * price of this bound is 16 bytes of bookkeeping per word of the memory space.
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace.
+ */
+public class TlsfMemorySpace implements Allocator {
+
+    private static final int SL_BITS = 4;            // log2 of the number of second-level bins
+    private static final int SL_COUNT = 1 << SL_BITS;
+    private static final int FL_COUNT = 31 - SL_BITS + 1;  // lengths are positive ints
+
+    private static final int NONE = -1;  // marks the end of a list, and a missing neighbour
+
+    // heads[fl * SL_COUNT + sl] is the record of the first free block of bin (fl, sl), or NONE
+    private int[] heads;
+
+    // Bit fl is set if and only if some bin of the first-level range fl is not empty
+    private int flBitmap;
+
+    // Bit sl of slBitmaps[fl] is set if and only if bin (fl, sl) is not empty
+    private int[] slBitmaps;
+
+    // The records, indexed by the base address of their block: the length of the block (negated
+    // if the block is free, or 0 if no block begins there), the base address of the block that
+    // precedes it in the memory space, or NONE, and the base addresses of the blocks that follow
+    // and precede it in its bin, if it is free, or in the allocation order, if it is allocated,
+    // or NONE
+    private int[] lengths;
+    private int[] below;
+    private int[] next;
+    private int[] prev;
+
+    private int maxSize;
+
+    // The first and the last allocated blocks, in allocation order
+    private int firstAllocated = NONE;
+    private int lastAllocated = NONE;
+
+    private int freeCount;       // the number of free blocks
+    private int allocatedCount;  // the number of allocated blocks
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public TlsfMemorySpace(int maxSize) {
+        heads = new int[FL_COUNT * SL_COUNT];
+        java.util.Arrays.fill(heads, NONE);
+        slBitmaps = new int[FL_COUNT];
+        this.maxSize = maxSize;
+        lengths = new int[maxSize];
+        below = new int[maxSize];
+        next = new int[maxSize];
+        prev = new int[maxSize];
+        if (maxSize > 0) {
+            below[0] = NONE;
+            insertFree(0, maxSize);
+        }
+    }
+
+    /** Returns the first-level index of the given (positive) length. */
+    static int firstLevel(int length) {
+        if (length < SL_COUNT) {
+            return 0;
+        }
+        return (31 - Integer.numberOfLeadingZeros(length)) - SL_BITS + 1;
+    }
+
+    /** Returns the second-level index of the given (positive) length, within its first level. */
+    static int secondLevel(int length) {
+        if (length < SL_COUNT) {
+            return length;
+        }
+        int log2 = 31 - Integer.numberOfLeadingZeros(length);
+        return (length >>> (log2 - SL_BITS)) - SL_COUNT;
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words). Returns the
+     * base address of the allocated block, or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        // Rounds the length up to the next bin boundary, so any block of the bin fits
+        int rounded = length;
+        if (length >= SL_COUNT) {
+            int log2 = 31 - Integer.numberOfLeadingZeros(length);
+            rounded = length + (1 << (log2 - SL_BITS)) - 1;
+            if (rounded < 0) {
+                return -1;
+            }
+        }
+        int fl = firstLevel(rounded);
+        int sl = secondLevel(rounded);
+        int slMap = slBitmaps[fl] & (-1 << sl);
+        if (slMap == 0) {
+            int flMap = (fl + 1 < FL_COUNT) ? flBitmap & (-1 << (fl + 1)) : 0;
+            if (flMap == 0) {
+                return -1;
+            }
+            fl = Integer.numberOfTrailingZeros(flMap);
+            slMap = slBitmaps[fl];
+        }
+        sl = Integer.numberOfTrailingZeros(slMap);
+        int r = heads[fl * SL_COUNT + sl];
+        int freeLength = -lengths[r];
+        removeFree(r, freeLength);
+        if (freeLength > length) {
+            int rest = r + length;
+            below[rest] = r;
+            if (r + freeLength < maxSize) {
+                below[r + freeLength] = rest;
+            }
+            insertFree(rest, freeLength - length);
+        }
+        lengths[r] = length;
+        next[r] = NONE;
+        prev[r] = lastAllocated;
+        if (lastAllocated == NONE) {
+            firstAllocated = r;
+        } else {
+            next[lastAllocated] = r;
+        }
+        lastAllocated = r;
+        allocatedCount++;
+        return r;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, and merges it
+     * with the free blocks that end where it begins and begin where it ends.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocatedCount == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        if (address < 0 || address >= maxSize || lengths[address] <= 0) {
+            return;
+        }
+        int r = address;
+        allocatedCount--;
+        if (prev[r] == NONE) {
+            firstAllocated = next[r];
+        } else {
+            next[prev[r]] = next[r];
+        }
+        if (next[r] == NONE) {
+            lastAllocated = prev[r];
+        } else {
+            prev[next[r]] = prev[r];
+        }
+        int length = lengths[r];
+        int previous = below[r];
+        if (previous != NONE && lengths[previous] < 0) {
+            removeFree(previous, -lengths[previous]);
+            length -= lengths[previous];
+            unlink(r);
+            r = previous;
+        }
+        int following = r + length;
+        if (following < maxSize && lengths[following] < 0) {
+            removeFree(following, -lengths[following]);
+            length -= lengths[following];
+            unlink(following);
+        }
+        insertFree(r, length);
+    }
+
+    /**
+     * Does nothing, since free merges every freed block with its free neighbours.
+     */
+    public boolean defrag() {
+        return true;
+    }
+
+    /** Removes the given record, whose block was merged into the block below it. */
+    private void unlink(int r) {
+        int upper = r + (lengths[r] < 0 ? -lengths[r] : lengths[r]);
+        if (upper < maxSize) {
+            below[upper] = below[r];
+        }
+        lengths[r] = 0;
+    }
+
+    /** Adds the free block of the given record and length to its bin. */
+    private void insertFree(int r, int length) {
+        int fl = firstLevel(length);
+        int sl = secondLevel(length);
+        int bin = fl * SL_COUNT + sl;
+        int first = heads[bin];
+        next[r] = first;
+        prev[r] = NONE;
+        if (first != NONE) {
+            prev[first] = r;
+        }
+        heads[bin] = r;
+        slBitmaps[fl] |= 1 << sl;
+        flBitmap |= 1 << fl;
+        lengths[r] = -length;
+        freeCount++;
+    }
+
+    /** Removes the free block of the given record and length from its bin. */
+    private void removeFree(int r, int length) {
+        int fl = firstLevel(length);
+        int sl = secondLevel(length);
+        int bin = fl * SL_COUNT + sl;
+        int previous = prev[r];
+        int following = next[r];
+        if (previous == NONE) {
+            heads[bin] = following;
+        } else {
+            next[previous] = following;
+        }
+        if (following != NONE) {
+            prev[following] = previous;
+        }
+        if (heads[bin] == NONE) {
+            slBitmaps[fl] &= ~(1 << sl);
+            if (slBitmaps[fl] == 0) {
+                flBitmap &= ~(1 << fl);
+            }
+        }
+        freeCount--;
+    }
+
+    /** Returns the number of free blocks. */
+    public int getFreeBlockCount() {
+        return freeCount;
+    }
+
+    /**
+     * A textual representation of the free blocks (bin by bin, from the smallest bin)
+     * and of the allocated blocks (in allocation order) of this memory space, for debugging
+     * purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int bin = 0; bin < heads.length; bin++) {
+            for (int r = heads[bin]; r != NONE; r = next[r]) {
+                sb.append("(").append(r).append(" , ").append(-lengths[r]).append(") ");
+            }
+        }
+        sb.append("\n");
+        for (int r = firstAllocated; r != NONE; r = next[r]) {
+            sb.append("(").append(r).append(" , ").append(lengths[r]).append(") ");
+        }
+        return sb.toString();
+    }
+}
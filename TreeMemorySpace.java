@@ -0,0 +1,371 @@
+/**
+ * Represents a managed memory space that allocates by best-fit, using a balanced tree.
+ * <p>
+ * The free blocks are kept in a tree (a treap) ordered by length, and then by base address,
+ * in which malloc finds the shortest sufficient block in O(log n) expected time. Every block,
+ * free or allocated, also links to the blocks just below and just above it in the memory space,
+ * which index the blocks by base address well enough for free: it finds the free neighbours of
+ * the freed block through them in O(1) time. Freed blocks are merged with their free neighbours
+ * immediately, so the free blocks are always coalesced, and defrag has nothing to do.
+ * <p>
+ * The blocks are records of RECORD consecutive ints in a single array, rather than objects:
+ * a search through the tree reads one record per level, which is in a single cache line, and
+ * malloc and free allocate no objects, apart from the growth of the array and of the SlotIndex
+ * that maps the base address of every allocated block to its record. The records of merged
+ * blocks are reused. When malloc splits a block, or free merges one, the free block usually
+ * keeps its place in the tree, and then the tree is only read (see resize).
+ * <p>
+ * The methods malloc, free, defrag and toString follow the same contract as in MemorySpace.
+ * The free blocks appear in toString by ascending base address.
+ */
+public class TreeMemorySpace implements Allocator {
+
+    // The fields of a record. A block is either in the tree, if it is free, or in the
+    // allocation order, if it is allocated, so the two share their links.
+    private static final int BASE = 0;      // the base address of the block
+    private static final int LENGTH = 1;    // the length of the block
+    private static final int BELOW = 2;     // the record of the block that ends where this one begins, or NONE
+    private static final int ABOVE = 3;     // the record of the block that begins where this one ends, or NONE
+    private static final int LEFT = 4;      // free: the left child in the tree, or NONE
+    private static final int RIGHT = 5;     // free: the right child in the tree, or NONE
+    private static final int NEXT = 4;      // allocated: the next allocated block, or NONE
+    private static final int PREV = 5;      // allocated: the previous allocated block, or NONE
+    private static final int PRIORITY = 6;  // free: the (non-negative) priority in the tree; allocated: NONE
+
+    /** The number of ints in a record (a power of two, so that no record spans two cache lines). */
+    private static final int RECORD = 8;
+
+    private static final int NONE = -1;
+
+    // The records, RECORD ints each, of the blocks, and of the merged blocks kept for reuse
+    private int[] records = new int[16 * RECORD];
+    private int recordCount;          // the number of records ever used
+    private int unusedRecord = NONE;  // the first record kept for reuse, linked through NEXT
+
+    private int root = NONE;     // the root of the tree of free blocks
+    private int freeCount;       // the number of free blocks
+    private int lowest = NONE;   // the record of the block whose base address is 0
+    private int seed = 0x2545F491;  // state of the priority generator
+
+    // The record of every allocated block, by base address
+    private SlotIndex allocated = new SlotIndex();
+
+    // The first and the last allocated blocks, in allocation order
+    private int firstAllocated = NONE;
+    private int lastAllocated = NONE;
+
+    /**
+     * Constructs a new managed memory space of a given maximal size.
+     *
+     * @param maxSize
+     *            the size of the memory space to be managed
+     */
+    public TreeMemorySpace(int maxSize) {
+        if (maxSize > 0) {
+            lowest = newRecord(0, maxSize, NONE, NONE);
+            insertFree(lowest);
+        }
+    }
+
+    /**
+     * Allocates a memory block of a requested length (in words), from the beginning of the
+     * shortest free block that is long enough. Returns the base address of the allocated block,
+     * or -1 if unable to allocate.
+     *
+     * @param length
+     *        the length (in words) of the memory block that has to be allocated
+     * @return the base address of the allocated block, or -1 if unable to allocate
+     */
+    public int malloc(int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int r = ceiling(length);
+        if (r == NONE) {
+            return -1;
+        }
+        int base = get(r, BASE);
+        int freeLength = get(r, LENGTH);
+        int a = r;
+        if (freeLength == length) {
+            root = remove(root, r);
+            freeCount--;
+        } else {
+            // The allocated block gets a new record below r, and the rest of the free block
+            // keeps r, which lies where the block did
+            int lower = get(r, BELOW);
+            a = newRecord(base, length, lower, r);
+            if (lower == NONE) {
+                lowest = a;
+            } else {
+                set(lower, ABOVE, a);
+            }
+            set(r, BELOW, a);
+            resize(r, base + length, freeLength - length);
+        }
+        set(a, PRIORITY, NONE);
+        set(a, NEXT, NONE);
+        set(a, PREV, lastAllocated);
+        if (lastAllocated == NONE) {
+            firstAllocated = a;
+        } else {
+            set(lastAllocated, NEXT, a);
+        }
+        lastAllocated = a;
+        allocated.put(base, a);
+        return base;
+    }
+
+    /**
+     * Frees the memory block whose base address equals the given address, and merges it
+     * with the free blocks that end where it begins and begin where it ends.
+     *
+     * @param address
+     *            the starting address of the block to free
+     */
+    public void free(int address) {
+        if (allocated.getSize() == 0) {
+            throw new IllegalArgumentException("index must be between 0 and size");
+        }
+        int r = allocated.remove(address);
+        if (r == NONE) {
+            return;
+        }
+        int previous = get(r, PREV);
+        int next = get(r, NEXT);
+        if (previous == NONE) {
+            firstAllocated = next;
+        } else {
+            set(previous, NEXT, next);
+        }
+        if (next == NONE) {
+            lastAllocated = previous;
+        } else {
+            set(next, PREV, previous);
+        }
+        int lower = get(r, BELOW);
+        int upper = get(r, ABOVE);
+        boolean mergesLower = lower != NONE && get(lower, PRIORITY) != NONE;
+        boolean mergesUpper = upper != NONE && get(upper, PRIORITY) != NONE;
+        if (mergesLower) {
+            int length = get(lower, LENGTH) + get(r, LENGTH);
+            if (mergesUpper) {
+                root = remove(root, upper);
+                freeCount--;
+                length += get(upper, LENGTH);
+                release(upper);
+            }
+            release(r);
+            resize(lower, get(lower, BASE), length);
+        } else if (mergesUpper) {
+            int base = get(r, BASE);
+            int length = get(r, LENGTH) + get(upper, LENGTH);
+            release(r);
+            resize(upper, base, length);
+        } else {
+            insertFree(r);
+        }
+    }
+
+    /**
+     * Does nothing, since free merges every freed block with its free neighbours.
+     */
+    public boolean defrag() {
+        return true;
+    }
+
+    /** Returns the number of free blocks. */
+    public int getFreeBlockCount() {
+        return freeCount;
+    }
+
+    private int get(int r, int field) {
+        return records[r * RECORD + field];
+    }
+
+    private void set(int r, int field, int value) {
+        records[r * RECORD + field] = value;
+    }
+
+    /** Returns a new record for a block of the given base address and length, between the two given records. */
+    private int newRecord(int base, int length, int lower, int upper) {
+        int r = unusedRecord;
+        if (r != NONE) {
+            unusedRecord = get(r, NEXT);
+        } else {
+            if ((recordCount + 1) * RECORD > records.length) {
+                records = java.util.Arrays.copyOf(records, records.length * 2);
+            }
+            r = recordCount++;
+        }
+        set(r, BASE, base);
+        set(r, LENGTH, length);
+        set(r, BELOW, lower);
+        set(r, ABOVE, upper);
+        return r;
+    }
+
+    /** Removes the given record, whose block was merged into a neighbour, and keeps it for reuse. */
+    private void release(int r) {
+        int lower = get(r, BELOW);
+        int upper = get(r, ABOVE);
+        if (lower == NONE) {
+            lowest = upper;
+        } else {
+            set(lower, ABOVE, upper);
+        }
+        if (upper != NONE) {
+            set(upper, BELOW, lower);
+        }
+        set(r, NEXT, unusedRecord);
+        unusedRecord = r;
+    }
+
+    /** Inserts the block of the given record, which is not in the tree, into the tree of free blocks. */
+    private void insertFree(int r) {
+        // xorshift: a fast pseudo-random sequence of priorities
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        set(r, PRIORITY, seed >>> 1);
+        set(r, LEFT, NONE);
+        set(r, RIGHT, NONE);
+        root = insert(root, r);
+        freeCount++;
+    }
+
+    /** Checks if the block of record a precedes a block of the given length and base address in the tree. */
+    private boolean precedes(int a, int length, int base) {
+        int aLength = get(a, LENGTH);
+        return aLength < length || (aLength == length && get(a, BASE) < base);
+    }
+
+    private int insert(int t, int r) {
+        if (t == NONE) {
+            return r;
+        }
+        if (precedes(r, get(t, LENGTH), get(t, BASE))) {
+            int l = insert(get(t, LEFT), r);
+            set(t, LEFT, l);
+            if (get(l, PRIORITY) > get(t, PRIORITY)) {
+                set(t, LEFT, get(l, RIGHT));
+                set(l, RIGHT, t);
+                return l;
+            }
+        } else {
+            int rt = insert(get(t, RIGHT), r);
+            set(t, RIGHT, rt);
+            if (get(rt, PRIORITY) > get(t, PRIORITY)) {
+                set(t, RIGHT, get(rt, LEFT));
+                set(rt, LEFT, t);
+                return rt;
+            }
+        }
+        return t;
+    }
+
+    /** Removes the block of record r, which is in the subtree t, and returns the new root of the subtree. */
+    private int remove(int t, int r) {
+        if (t == r) {
+            return merge(get(t, LEFT), get(t, RIGHT));
+        }
+        if (precedes(r, get(t, LENGTH), get(t, BASE))) {
+            set(t, LEFT, remove(get(t, LEFT), r));
+        } else {
+            set(t, RIGHT, remove(get(t, RIGHT), r));
+        }
+        return t;
+    }
+
+    /** Merges two subtrees, all of whose blocks in a precede all of whose blocks in b. */
+    private int merge(int a, int b) {
+        if (a == NONE) {
+            return b;
+        }
+        if (b == NONE) {
+            return a;
+        }
+        if (get(a, PRIORITY) > get(b, PRIORITY)) {
+            set(a, RIGHT, merge(get(a, RIGHT), b));
+            return a;
+        }
+        set(b, LEFT, merge(a, get(b, LEFT)));
+        return b;
+    }
+
+    /**
+     * Returns the record of the shortest free block whose length is at least the given length,
+     * and, among those, of the one with the lowest base address, or NONE if none is long enough.
+     */
+    private int ceiling(int length) {
+        int best = NONE;
+        int t = root;
+        while (t != NONE) {
+            if (get(t, LENGTH) >= length) {
+                best = t;
+                t = get(t, LEFT);
+            } else {
+                t = get(t, RIGHT);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Changes the base address and the length of the free block of the given record. The block
+     * keeps its place in the tree if its new order still falls between those of the blocks that
+     * precede and follow it, and is removed and inserted again otherwise.
+     */
+    private void resize(int r, int base, int length) {
+        int before = NONE;  // the record of the preceding block
+        int after = NONE;   // the record of the following block
+        int t = root;
+        while (t != r) {
+            if (precedes(r, get(t, LENGTH), get(t, BASE))) {
+                after = t;
+                t = get(t, LEFT);
+            } else {
+                before = t;
+                t = get(t, RIGHT);
+            }
+        }
+        if (get(t, LEFT) != NONE) {
+            for (before = get(t, LEFT); get(before, RIGHT) != NONE; before = get(before, RIGHT)) {
+            }
+        }
+        if (get(t, RIGHT) != NONE) {
+            for (after = get(t, RIGHT); get(after, LEFT) != NONE; after = get(after, LEFT)) {
+            }
+        }
+        if ((before == NONE || precedes(before, length, base))
+                && (after == NONE || !precedes(after, length, base))) {
+            set(r, BASE, base);
+            set(r, LENGTH, length);
+            return;
+        }
+        root = remove(root, r);
+        freeCount--;
+        set(r, BASE, base);
+        set(r, LENGTH, length);
+        insertFree(r);
+    }
+
+    /**
+     * A textual representation of the free blocks (by ascending base address) and of the
+     * allocated blocks of this memory space, for debugging purposes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = lowest; r != NONE; r = get(r, ABOVE)) {
+            if (get(r, PRIORITY) != NONE) {
+                sb.append("(").append(get(r, BASE)).append(" , ").append(get(r, LENGTH)).append(") ");
+            }
+        }
+        sb.append("\n");
+        for (int r = firstAllocated; r != NONE; r = get(r, NEXT)) {
+            sb.append("(").append(get(r, BASE)).append(" , ").append(get(r, LENGTH)).append(") ");
+        }
+        return sb.toString();
+    }
+}
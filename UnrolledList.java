@@ -0,0 +1,419 @@
+/**
+ * Represents a list of memory blocks, kept in an unrolled linked list: a doubly linked list
+ * of chunks, each of which holds up to CAPACITY blocks in an array. A walk over the list
+ * follows one link per chunk instead of one per block, and reads the blocks' references
+ * from contiguous memory, so it causes far fewer cache misses than a walk over a LinkedList.
+ * Positional access skips whole chunks, and takes O(n / CAPACITY) time.
+ * <p>
+ * An insertion into a full chunk splits it into two halves, and a removal that leaves a
+ * chunk and the chunk after it at most half full merges them, so the chunks are, on average,
+ * at least a quarter full.
+ * <p>
+ * The methods follow the same contract as in LinkedList, and toString has the same format.
+ * The blocks are not held by nodes, so there are no Node-based methods (getFirst, getNode,
+ * remove(Node)); the list is walked with its own iterator instead.
+ */
+public class UnrolledList {
+
+	static final int CAPACITY = 64;  // the maximal number of blocks in a chunk
+
+	/** A chunk of consecutive blocks of the list. */
+	private static class Chunk {
+		MemoryBlock[] blocks = new MemoryBlock[CAPACITY];
+		int count;  // the number of blocks in this chunk, at least 1
+		Chunk next;
+		Chunk prev;
+	}
+
+	private Chunk first; // pointer to the first chunk of this list
+	private Chunk last;  // pointer to the last chunk of this list
+	private int size;    // number of blocks in this list
+
+	/**
+	 * Constructs a new list.
+	 */
+	public UnrolledList() {
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Creates a new chunk entry for the given memory block, and inserts it at the given index.
+	 *
+	 * @param index
+	 *        the index before which the memory block should be inserted
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than the list's size
+	 */
+	public void add(int index, MemoryBlock block) {
+		if (index < 0 || index > size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		if (first == null) {
+			first = new Chunk();
+			last = first;
+		}
+		Chunk chunk;
+		int i;
+		if (index == size) {
+			chunk = last;
+			i = last.count;
+		} else {
+			chunk = first;
+			i = index;
+			while (i >= chunk.count) {
+				i -= chunk.count;
+				chunk = chunk.next;
+			}
+		}
+		insertAt(chunk, i, block);
+	}
+
+	/**
+	 * Adds the given memory block to the end of this list.
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addLast(MemoryBlock block) {
+		add(size, block);
+	}
+
+	/**
+	 * Adds the given memory block to the beginning of this list.
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addFirst(MemoryBlock block) {
+		add(0, block);
+	}
+
+	/**
+	 * Gets the memory block located at the given index in this list.
+	 *
+	 * @param index
+	 *        the index of the retrieved memory block
+	 * @return the memory block at the given index
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public MemoryBlock getBlock(int index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		// Skips whole chunks, from the nearer end of the list
+		if (index <= size / 2) {
+			Chunk chunk = first;
+			while (index >= chunk.count) {
+				index -= chunk.count;
+				chunk = chunk.next;
+			}
+			return chunk.blocks[index];
+		}
+		int fromEnd = size - 1 - index;
+		Chunk chunk = last;
+		while (fromEnd >= chunk.count) {
+			fromEnd -= chunk.count;
+			chunk = chunk.prev;
+		}
+		return chunk.blocks[chunk.count - 1 - fromEnd];
+	}
+
+	/**
+	 * Gets the index of the given memory block.
+	 *
+	 * @param block
+	 *        the given memory block
+	 * @return the index of the block, or -1 if the block is not in this list
+	 */
+	public int indexOf(MemoryBlock block) {
+		if (block == null) {
+			return -1;
+		}
+		int base = 0;
+		for (Chunk chunk = first; chunk != null; chunk = chunk.next) {
+			for (int i = 0; i < chunk.count; i++) {
+				if (chunk.blocks[i] == block) {
+					return base + i;
+				}
+			}
+			base += chunk.count;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes from this list the memory block which is located at the given index.
+	 *
+	 * @param index
+	 *        the location of the block that has to be removed.
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than or equal to size
+	 */
+	public void remove(int index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		Chunk chunk = first;
+		while (index >= chunk.count) {
+			index -= chunk.count;
+			chunk = chunk.next;
+		}
+		removeAt(chunk, index);
+	}
+
+	/**
+	 * Removes the given memory block from this list.
+	 *
+	 * @param block
+	 *        the memory block that should be removed from the list
+	 * @throws IllegalArgumentException
+	 *         if the given memory block is not in this list
+	 */
+	public void remove(MemoryBlock block) {
+		if (block != null) {
+			for (Chunk chunk = first; chunk != null; chunk = chunk.next) {
+				for (int i = 0; i < chunk.count; i++) {
+					if (chunk.blocks[i] == block) {
+						removeAt(chunk, i);
+						return;
+					}
+				}
+			}
+		}
+		throw new IllegalArgumentException("index must be between 0 and size");
+	}
+
+	/**
+	 * Sorts this list by the base addresses of its memory blocks, keeping the order of
+	 * blocks with equal base addresses. The blocks are sorted in a single array, and then
+	 * packed back into full chunks, in O(n log n) time.
+	 */
+	public void sortByBaseAddress() {
+		if (size < 2) {
+			return;
+		}
+		MemoryBlock[] all = new MemoryBlock[size];
+		int n = 0;
+		for (Chunk chunk = first; chunk != null; chunk = chunk.next) {
+			System.arraycopy(chunk.blocks, 0, all, n, chunk.count);
+			n += chunk.count;
+		}
+		java.util.Arrays.sort(all, (a, b) -> Integer.compare(a.baseAddress, b.baseAddress));
+		first = null;
+		last = null;
+		size = 0;
+		for (int i = 0; i < n; i++) {
+			if (last == null || last.count == CAPACITY) {
+				appendChunk();
+			}
+			last.blocks[last.count++] = all[i];
+			size++;
+		}
+	}
+
+	/**
+	 * Merges every memory block in this list with the blocks that directly follow it in
+	 * memory, in a single O(n) pass that packs the remaining blocks towards the front of
+	 * the list. The list must be sorted by base address (see sortByBaseAddress).
+	 */
+	public void coalesce() {
+		if (size < 2) {
+			return;
+		}
+		// The pass reads every block, and writes the remaining ones behind the reads
+		Chunk write = first;
+		int w = 0;
+		MemoryBlock current = first.blocks[0];
+		int kept = 0;
+		for (Chunk read = first; read != null; read = read.next) {
+			for (int r = (read == first) ? 1 : 0; r < read.count; r++) {
+				MemoryBlock blk = read.blocks[r];
+				if (current.baseAddress + current.length == blk.baseAddress) {
+					current.length += blk.length;
+					continue;
+				}
+				if (w == CAPACITY) {
+					write.count = w;
+					write = write.next;
+					w = 0;
+				}
+				write.blocks[w++] = current;
+				kept++;
+				current = blk;
+			}
+		}
+		if (w == CAPACITY) {
+			write.count = w;
+			write = write.next;
+			w = 0;
+		}
+		write.blocks[w++] = current;
+		kept++;
+		write.count = w;
+		java.util.Arrays.fill(write.blocks, w, CAPACITY, null);
+		write.next = null;
+		last = write;
+		size = kept;
+	}
+
+	/**
+	 * Returns an iterator over this list, starting with the first block.
+	 */
+	public Iterator iterator() {
+		return new Iterator();
+	}
+
+	/** Represents an iterator of an unrolled list, which supports remove(). */
+	public class Iterator {
+
+		private Chunk chunk = first;  // the chunk of the next block
+		private int index;            // the index of the next block in its chunk
+		private Chunk lastChunk;      // the chunk of the block returned by the last call to next
+		private int lastIndex;
+
+		/** Checks if this iterator has more blocks to process */
+		public boolean hasNext() {
+			return chunk != null && index < chunk.count;
+		}
+
+		/** Returns the current block in the list, and advances the cursor */
+		public MemoryBlock next() {
+			MemoryBlock blk = chunk.blocks[index];
+			lastChunk = chunk;
+			lastIndex = index;
+			if (++index == chunk.count) {
+				chunk = chunk.next;
+				index = 0;
+			}
+			return blk;
+		}
+
+		/**
+		 * Removes from the list the block that was returned by the last call to next.
+		 *
+		 * @throws IllegalStateException
+		 *         if next was not called, or remove was already called after the last call to next
+		 */
+		public void remove() {
+			if (lastChunk == null) {
+				throw new IllegalStateException("next must be called before remove");
+			}
+			Chunk following = lastChunk.next;
+			boolean emptied = lastChunk.count == 1;
+			removeAt(lastChunk, lastIndex);
+			// The next block now sits where the removed one was, unless the removed block
+			// was the last of its chunk (and no merge refilled that slot)
+			if (!emptied && lastIndex < lastChunk.count) {
+				chunk = lastChunk;
+				index = lastIndex;
+			} else {
+				chunk = emptied ? following : lastChunk.next;
+				index = 0;
+			}
+			lastChunk = null;
+		}
+	}
+
+	/** Inserts the given block at index i of the given chunk, splitting the chunk if it is full. */
+	private void insertAt(Chunk chunk, int i, MemoryBlock block) {
+		if (chunk.count == CAPACITY) {
+			// Moves the upper half of the chunk into a new chunk that follows it
+			Chunk upper = new Chunk();
+			int half = CAPACITY / 2;
+			System.arraycopy(chunk.blocks, half, upper.blocks, 0, CAPACITY - half);
+			java.util.Arrays.fill(chunk.blocks, half, CAPACITY, null);
+			upper.count = CAPACITY - half;
+			chunk.count = half;
+			linkAfter(chunk, upper);
+			if (i > half) {
+				chunk = upper;
+				i -= half;
+			}
+		}
+		System.arraycopy(chunk.blocks, i, chunk.blocks, i + 1, chunk.count - i);
+		chunk.blocks[i] = block;
+		chunk.count++;
+		size++;
+	}
+
+	/**
+	 * Removes the block at index i of the given chunk. An emptied chunk is unlinked, and a
+	 * chunk that, with the chunk after it, holds at most CAPACITY / 2 blocks absorbs it.
+	 */
+	private void removeAt(Chunk chunk, int i) {
+		System.arraycopy(chunk.blocks, i + 1, chunk.blocks, i, chunk.count - i - 1);
+		chunk.blocks[--chunk.count] = null;
+		size--;
+		if (chunk.count == 0) {
+			unlink(chunk);
+			return;
+		}
+		Chunk next = chunk.next;
+		if (next != null && chunk.count + next.count <= CAPACITY / 2) {
+			System.arraycopy(next.blocks, 0, chunk.blocks, chunk.count, next.count);
+			chunk.count += next.count;
+			unlink(next);
+		}
+	}
+
+	/** Appends a new, empty chunk to the end of the list. */
+	private void appendChunk() {
+		Chunk chunk = new Chunk();
+		if (last == null) {
+			first = chunk;
+			last = chunk;
+		} else {
+			linkAfter(last, chunk);
+		}
+	}
+
+	private void linkAfter(Chunk chunk, Chunk newChunk) {
+		newChunk.prev = chunk;
+		newChunk.next = chunk.next;
+		if (chunk.next == null) {
+			last = newChunk;
+		} else {
+			chunk.next.prev = newChunk;
+		}
+		chunk.next = newChunk;
+	}
+
+	private void unlink(Chunk chunk) {
+		if (chunk.prev == null) {
+			first = chunk.next;
+		} else {
+			chunk.prev.next = chunk.next;
+		}
+		if (chunk.next == null) {
+			last = chunk.prev;
+		} else {
+			chunk.next.prev = chunk.prev;
+		}
+		chunk.next = null;
+		chunk.prev = null;
+	}
+
+	/**
+	 * A textual representation of this list, for debugging.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (Chunk chunk = first; chunk != null; chunk = chunk.next) {
+			for (int i = 0; i < chunk.count; i++) {
+				sb.append(chunk.blocks[i]);
+				if (i + 1 < chunk.count || chunk.next != null) {
+					sb.append(", ");
+				}
+			}
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/* This program measures how fast a free list of n blocks can be walked, when it is held
+ * by a LinkedList (one node per block) and by an UnrolledList (up to 64 blocks per chunk).
+ *
+ * Both lists hold the same blocks, whose base addresses are random, and both are sorted by
+ * base address, as defrag does. The sort leaves the LinkedList's nodes linked in an order
+ * that has nothing to do with their order in memory, as a long-lived free list is after
+ * many mallocs and frees. Then, two walks are timed on each list:
+ *
+ * (1) a malloc scan: a first-fit search for a block that is longer than every free block,
+ *     so that the whole list is scanned and malloc fails;
+ * (2) toString.
+ *
+ * Usage: java UnrolledListBenchmark [sizes...]   (default sizes: 10000 100000 1000000)
+ */
+public class UnrolledListBenchmark {
+
+    private static final int ROUNDS = 20;  // walks per measurement
+
+    public static void main(String[] args) {
+        int[] sizes = { 10000, 100000, 1000000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        // Warms up the JIT, so that the first measured size is not penalized
+        for (int i = 0; i < 5; i++) {
+            run(10000, false);
+        }
+        System.out.println("           malloc scan (ms per walk)           toString (ms per walk)");
+        System.out.println("blocks     LinkedList     UnrolledList         LinkedList     UnrolledList");
+        for (int n : sizes) {
+            run(n, true);
+        }
+    }
+
+    private static void run(int n, boolean print) {
+        LinkedList linked = new LinkedList();
+        UnrolledList unrolled = new UnrolledList();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < n; i++) {
+            MemoryBlock blk = new MemoryBlock(random.nextInt(Integer.MAX_VALUE), 1 + random.nextInt(16));
+            linked.addLast(blk);
+            unrolled.addLast(blk);
+        }
+        linked.sortByBaseAddress();
+        unrolled.sortByBaseAddress();
+
+        long found = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            found += scan(linked, 17);
+        }
+        long linkedScan = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            found += scan(unrolled, 17);
+        }
+        long unrolledScan = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            found += linked.toString().length();
+        }
+        long linkedString = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            found += unrolled.toString().length();
+        }
+        long unrolledString = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%-10d %-14.2f %-20.2f %-14.2f %.2f%n", n,
+                    linkedScan / 1e6 / ROUNDS, unrolledScan / 1e6 / ROUNDS,
+                    linkedString / 1e6 / ROUNDS, unrolledString / 1e6 / ROUNDS);
+        } else if (found == 42) {
+            System.out.println();  // keeps the results alive
+        }
+    }
+
+    /** First-fit scan of a LinkedList, as MemorySpace.malloc does it; returns the base address or -1. */
+    private static int scan(LinkedList list, int length) {
+        for (Node current = list.getFirst(); current != null; current = current.next) {
+            if (current.block.length >= length) {
+                return current.block.baseAddress;
+            }
+        }
+        return -1;
+    }
+
+    /** First-fit scan of an UnrolledList; returns the base address or -1. */
+    private static int scan(UnrolledList list, int length) {
+        UnrolledList.Iterator itr = list.iterator();
+        while (itr.hasNext()) {
+            MemoryBlock blk = itr.next();
+            if (blk.length >= length) {
+                return blk.baseAddress;
+            }
+        }
+        return -1;
+    }
+}